@@ -0,0 +1,114 @@
+package io.tlf.jme.physics.jmh;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.AppState;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import io.tlf.jme.physics.PhysicsStateData;
+import io.tlf.jme.physics.PhysicsSyncClient;
+import io.tlf.jme.physics.msg.PhysicsSyncMessage;
+import io.tlf.jme.physics.msg.PhysicsSyncObjMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client frame at 60 frames per second with sync messages arriving at 20 per second,
+ * through the real receive and update path of PhysicsSyncClient: the mailbox, the jitter buffer or interpolation,
+ * and the Spatial lookup. Messages carry full states, so receiving does not allocate either.
+ * The GC profiler should report no allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientUpdateBenchmark {
+
+    private static final float TPF = 1f / 60f;
+    private static final int FRAMES_PER_STATE = 3;
+    private static final long STATE_INTERVAL = 50; //in milliseconds
+
+    @Param({"100", "1000"})
+    public int objects;
+
+    @Param({"true", "false"})
+    public boolean jitterBuffer;
+
+    private BenchmarkApp app;
+    private PhysicsSyncClient client;
+    private PhysicsSyncMessage[] messages = new PhysicsSyncMessage[2];
+    private long serverTime;
+    private long frame = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        app = new BenchmarkApp();
+        client = new PhysicsSyncClient();
+        client.setJitterBuffer(jitterBuffer);
+        client.initialize(null, app);
+
+        Random random = new Random(42);
+        int[] ids = new int[objects];
+        String[] names = new String[objects];
+        for (int s = 0; s < messages.length; s++) {
+            messages[s] = new PhysicsSyncMessage();
+            messages[s].setPhysicsData(new PhysicsStateData[objects]);
+        }
+        for (int i = 0; i < objects; i++) {
+            ids[i] = i;
+            names[i] = "Object" + i;
+            Node spatial = new Node(names[i]);
+            Vector3f pos = new Vector3f(random.nextFloat() * 100f, 0, random.nextFloat() * 100f);
+            spatial.setLocalTranslation(pos);
+            app.getRootNode().attachChild(spatial);
+            for (int s = 0; s < messages.length; s++) {
+                //Alternate between two nearby poses so every state moves the object
+                messages[s].getPhysicsData()[i] = new PhysicsStateData(i, pos.add(s * 0.5f, 0, 0), new Quaternion().fromAngles(0, s * 0.2f, 0));
+            }
+        }
+        PhysicsSyncObjMessage registration = new PhysicsSyncObjMessage();
+        registration.setId(ids);
+        registration.setName(names);
+        registration.setRemove(new boolean[objects]);
+        client.messageReceived(null, registration);
+        app.runTasks();
+        serverTime = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public int frame() {
+        if (frame % FRAMES_PER_STATE == 0) {
+            //Server time advances by a sync interval per message, independent of how fast frames run
+            PhysicsSyncMessage msg = messages[(int) (frame / FRAMES_PER_STATE % messages.length)];
+            serverTime += STATE_INTERVAL;
+            msg.setTimestamp(serverTime);
+            client.messageReceived(null, msg);
+        }
+        frame++;
+        client.update(TPF);
+        return objects;
+    }
+
+    /**
+     * Application that is never started, the client only needs its root node and task queue.
+     */
+    private static class BenchmarkApp extends SimpleApplication {
+
+        BenchmarkApp() {
+            super(new AppState[0]);
+        }
+
+        @Override
+        public void simpleInitApp() {
+
+        }
+
+        void runTasks() {
+            runQueuedTasks();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.tlf.jme.physics.jmh;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import com.jme3.network.Server;
+import com.jme3.network.serializing.Serializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Connection that serializes sent messages and counts them instead of sending them,
+ * so benchmarks include the cost of serialization but not of the network.
+ */
+public class CountingConnection implements HostedConnection {
+
+    private final int id;
+    private final ByteBuffer buffer = ByteBuffer.allocate(65536);
+    private final HashMap<String, Object> attributes = new HashMap<>();
+    private long messages = 0;
+    private long bytes = 0;
+
+    public CountingConnection(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public synchronized void send(Message message) {
+        buffer.clear();
+        try {
+            Serializer.writeClassAndObject(buffer, message);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        messages++;
+        bytes += buffer.position() + 2; //Length prefix added by SpiderMonkey
+    }
+
+    @Override
+    public void send(int channel, Message message) {
+        send(message);
+    }
+
+    public synchronized long getMessages() {
+        return messages;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized void reset() {
+        messages = 0;
+        bytes = 0;
+    }
+
+    @Override
+    public Server getServer() {
+        return null;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String getAddress() {
+        return "benchmark:" + id;
+    }
+
+    @Override
+    public void close(String reason) {
+    }
+
+    @Override
+    public Object setAttribute(String name, Object value) {
+        return value == null ? attributes.remove(name) : attributes.put(name, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttribute(String name) {
+        return (T) attributes.get(name);
+    }
+
+    @Override
+    public Set<String> attributeNames() {
+        return attributes.keySet();
+    }
+}
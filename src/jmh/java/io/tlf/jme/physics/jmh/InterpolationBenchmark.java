@@ -0,0 +1,78 @@
+package io.tlf.jme.physics.jmh;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import io.tlf.jme.physics.InterpolationTable;
+import io.tlf.jme.physics.PhysicsStateData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client interpolation frame at 60 frames per second with states arriving at 20 per second.
+ * The GC profiler should report no allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpolationBenchmark {
+
+    private static final float TPF = 1f / 60f;
+    private static final int FRAMES_PER_STATE = 3;
+
+    @Param({"100", "1000"})
+    public int objects;
+
+    @Param({"false", "true"})
+    public boolean velocity;
+
+    private InterpolationTable table;
+    private Node[] spatials;
+    private PhysicsStateData[][] states = new PhysicsStateData[2][];
+    private long frame = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        table = new InterpolationTable(objects);
+        spatials = new Node[objects];
+        for (int s = 0; s < states.length; s++) {
+            states[s] = new PhysicsStateData[objects];
+        }
+        for (int i = 0; i < objects; i++) {
+            spatials[i] = new Node("Object" + i);
+            Vector3f pos = new Vector3f(random.nextFloat() * 100f, 0, random.nextFloat() * 100f);
+            for (int s = 0; s < states.length; s++) {
+                //Alternate between two nearby poses so every state moves the object
+                PhysicsStateData state = new PhysicsStateData((long) i, pos.add(s * 0.5f, 0, 0), new Quaternion().fromAngles(0, s * 0.2f, 0));
+                if (velocity) {
+                    state.setLinearVelocity(new Vector3f(1f, 0, 0));
+                    state.setAngularVelocity(new Vector3f(0, 0.5f, 0));
+                }
+                states[s][i] = state;
+            }
+            spatials[i].setLocalTranslation(pos);
+        }
+    }
+
+    @Benchmark
+    public int frame() {
+        if (frame % FRAMES_PER_STATE == 0) {
+            PhysicsStateData[] received = states[(int) (frame / FRAMES_PER_STATE % states.length)];
+            for (int i = 0; i < objects; i++) {
+                table.set(i, spatials[i], received[i], 50f);
+            }
+        }
+        frame++;
+        for (int i = table.size() - 1; i >= 0; i--) {
+            table.update(i, TPF, 1000, 10f, FastMath.HALF_PI, 1500);
+        }
+        return table.size();
+    }
+}
@@ -0,0 +1,66 @@
+package io.tlf.jme.physics.jmh;
+
+import io.tlf.jme.physics.LatencyData;
+import io.tlf.jme.physics.msg.PhysicsEchoMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency statistics, updated for every client on every physics tick and on every echo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyBenchmark {
+
+    private static final int DELAYS = 1024;
+
+    private LatencyData latency = new LatencyData();
+    private PhysicsEchoMessage echo = new PhysicsEchoMessage();
+    private long[] delays = new long[DELAYS];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < DELAYS; i++) {
+            delays[i] = 20 + (long) Math.abs(random.nextGaussian() * 30);
+        }
+        //Fill the windows and histogram
+        for (int i = 0; i < LatencyData.HISTOGRAM_SAMPLES; i++) {
+            add();
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        echo.setServerTime(System.currentTimeMillis() - delays[next]);
+        next = (next + 1) % DELAYS;
+        latency.add(echo);
+    }
+
+    @Benchmark
+    public void update() {
+        latency.update();
+    }
+
+    @Benchmark
+    public long secondAverage() {
+        return latency.getSecondAverage();
+    }
+
+    @Benchmark
+    public long minuteAverage() {
+        return latency.getMinuteAverage();
+    }
+
+    @Benchmark
+    public long percentile() {
+        return latency.getPercentile(0.99);
+    }
+}
@@ -0,0 +1,127 @@
+package io.tlf.jme.physics.jmh;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.network.serializing.Serializer;
+import io.tlf.jme.physics.PhysicsStateCodec;
+import io.tlf.jme.physics.PhysicsStateData;
+import io.tlf.jme.physics.PhysicsSyncServer;
+import io.tlf.jme.physics.msg.PhysicsSyncMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of physics states and sync messages, with the reflective serializer or the compact codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"reflective", "compact"})
+    public String encoding;
+
+    @Param({"false", "true"})
+    public boolean velocity;
+
+    @Param({"100"})
+    public int states;
+
+    private PhysicsStateCodec codec;
+    private PhysicsStateData state;
+    private PhysicsSyncMessage message;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(65536);
+    private ByteBuffer stateBuffer;
+    private ByteBuffer messageBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        PhysicsSyncServer server = new PhysicsSyncServer(null);
+        if (encoding.equals("compact")) {
+            codec = PhysicsStateCodec.getDefault();
+            server.setCompactEncoding(codec);
+        }
+        server.registerMessages();
+
+        Random random = new Random(42);
+        PhysicsStateData[] data = new PhysicsStateData[states];
+        for (int i = 0; i < states; i++) {
+            data[i] = randomState(random, i);
+        }
+        state = randomState(random, states);
+        message = new PhysicsSyncMessage();
+        message.setPhysicsData(data);
+        message.setTimestamp(System.currentTimeMillis());
+
+        stateBuffer = serialize(state);
+        messageBuffer = serialize(message);
+    }
+
+    /**
+     * Write a state as it is written for each client, the compact codec reuses the encoding of the state.
+     */
+    @Benchmark
+    public ByteBuffer writeState() throws IOException {
+        writeBuffer.clear();
+        Serializer.writeClassAndObject(writeBuffer, state);
+        return writeBuffer;
+    }
+
+    /**
+     * Encode a state as it is encoded the first time it is written.
+     */
+    @Benchmark
+    public ByteBuffer encodeState() throws IOException {
+        writeBuffer.clear();
+        if (codec != null) {
+            codec.write(writeBuffer, state);
+        } else {
+            Serializer.writeClassAndObject(writeBuffer, state);
+        }
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public Object readState() throws IOException {
+        stateBuffer.rewind();
+        return Serializer.readClassAndObject(stateBuffer);
+    }
+
+    @Benchmark
+    public ByteBuffer writeMessage() throws IOException {
+        writeBuffer.clear();
+        Serializer.writeClassAndObject(writeBuffer, message);
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public Object readMessage() throws IOException {
+        messageBuffer.rewind();
+        return Serializer.readClassAndObject(messageBuffer);
+    }
+
+    private PhysicsStateData randomState(Random random, long id) {
+        Vector3f pos = new Vector3f(random.nextFloat() * 1000f - 500f, random.nextFloat() * 100f, random.nextFloat() * 1000f - 500f);
+        Quaternion rot = new Quaternion().fromAngles(random.nextFloat() * 6f, random.nextFloat() * 6f, random.nextFloat() * 6f);
+        PhysicsStateData data = new PhysicsStateData(id, pos, rot);
+        if (velocity) {
+            data.setLinearVelocity(new Vector3f(random.nextFloat() * 10f, random.nextFloat() * 10f, random.nextFloat() * 10f));
+            data.setAngularVelocity(new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()));
+        }
+        return data;
+    }
+
+    private static ByteBuffer serialize(Object object) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        Serializer.writeClassAndObject(buffer, object);
+        buffer.flip();
+        return buffer;
+    }
+}
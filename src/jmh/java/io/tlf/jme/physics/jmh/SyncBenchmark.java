@@ -0,0 +1,136 @@
+package io.tlf.jme.physics.jmh;
+
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import com.jme3.system.NativeLibraryLoader;
+import io.tlf.jme.physics.PhysicsSyncServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full sync pass of the server: the physics tick captures a snapshot, and the sender filters, encodes
+ * and sends it to every client. A pass ends when the sender is idle, so sender time is included.
+ * Objects that are not active are static bodies, which Bullet reports as sleeping, so they are only synced once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncBenchmark {
+
+    private static final float SPACING = 5f; //Average distance between objects
+
+    @Param({"1000", "10000"})
+    public int objects;
+
+    @Param({"1", "32"})
+    public int clients;
+
+    @Param({"0.1", "1"})
+    public float activeFraction;
+
+    @Param({"50", "-1"})
+    public float syncDistance;
+
+    private PhysicsSpace space;
+    private PhysicsSyncServer server;
+    private ArrayList<CountingConnection> connections = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        NativeLibraryLoader.loadNativeLibrary("bulletjme", true);
+        space = new PhysicsSpace(new Vector3f(-10000f, -10000f, -10000f), new Vector3f(10000f, 10000f, 10000f), PhysicsSpace.BroadphaseType.DBVT);
+        BulletAppState physics = new BulletAppState() {
+            @Override
+            public PhysicsSpace getPhysicsSpace() {
+                return space;
+            }
+        };
+        server = new PhysicsSyncServer(physics);
+        server.setJmxName(null);
+        server.setUpdateInterval(-1); //Sync on every tick
+        server.setEchoInterval(TimeUnit.DAYS.toMillis(1));
+        server.setSyncDistance(syncDistance);
+        server.registerMessages();
+        server.initialize(null, null);
+
+        Random random = new Random(42);
+        float extent = (float) Math.sqrt(objects) * SPACING;
+        Box mesh = new Box(0.5f, 0.5f, 0.5f);
+        BoxCollisionShape shape = new BoxCollisionShape(0.5f);
+        int active = Math.round(objects * activeFraction);
+        for (int i = 0; i < objects; i++) {
+            Geometry obj = new Geometry("Object" + i, mesh);
+            obj.setLocalTranslation(random.nextFloat() * extent, 0, random.nextFloat() * extent);
+            obj.addControl(new RigidBodyControl(shape, i < active ? 1f : 0f));
+            server.add(obj);
+        }
+        for (int i = 0; i < clients; i++) {
+            CountingConnection c = new CountingConnection(i);
+            connections.add(c);
+            server.add(c, new Vector3f(random.nextFloat() * extent, 0, random.nextFloat() * extent));
+        }
+
+        //Stream the registrations and send the final states of the sleeping objects before measuring
+        boolean synced;
+        do {
+            pass();
+            synced = true;
+            for (CountingConnection c : connections) {
+                synced &= server.isSynced(c);
+            }
+        } while (!synced);
+        pass();
+        for (CountingConnection c : connections) {
+            c.reset();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.cleanup();
+    }
+
+    @Benchmark
+    public void syncPass(Traffic traffic) throws InterruptedException {
+        pass();
+        for (CountingConnection c : connections) {
+            traffic.messages += c.getMessages();
+            traffic.bytes += c.getBytes();
+            c.reset();
+        }
+    }
+
+    private void pass() throws InterruptedException {
+        server.physicsTick(space, 1f / 60f);
+        if (!server.awaitSent(10000)) {
+            throw new IllegalStateException("Sender did not finish the pass");
+        }
+    }
+
+    /**
+     * Messages and bytes sent to all clients, reported with the results of each pass.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Traffic {
+        public long messages;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            messages = 0;
+            bytes = 0;
+        }
+    }
+}
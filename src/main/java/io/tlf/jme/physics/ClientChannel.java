@@ -0,0 +1,240 @@
+package io.tlf.jme.physics;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Outgoing queue of a single client.
+ * Messages and snapshots are delivered in the order they were queued, so a removal never overtakes a snapshot
+ * taken before it. Messages are never dropped, while snapshots are bounded and the oldest is dropped when the client falls behind.
+ */
+public class ClientChannel {
+
+    private final HostedConnection connection;
+    private final DeltaBaselines baselines = new DeltaBaselines();
+    private final PriorityAccumulator priorities = new PriorityAccumulator();
+    private final DeadReckoning reckoning = new DeadReckoning();
+    private final RateCounter messageRate = new RateCounter();
+    private final RateCounter byteRate = new RateCounter();
+    private final DebugSubscription debug = new DebugSubscription();
+    private final VisibilitySet visibility = new VisibilitySet();
+    private final NameTable names = new NameTable();
+    private final int phase;
+    private volatile JoinStream join;
+    private volatile boolean synced = true;
+    private ArrayDeque<Object> queue = new ArrayDeque<>();
+    private int snapshots = 0;
+    private boolean scheduled = false;
+    private volatile long dropped = 0;
+    private volatile int bandwidth = -1;
+    private long lastSnapshot = 0;
+    private int sequence = 0;
+
+    public ClientChannel(HostedConnection connection) {
+        this(connection, 0);
+    }
+
+    /**
+     * @param connection The client
+     * @param phase      The phase of the client, offsets the intervals reduced rate updates are sent in
+     */
+    public ClientChannel(HostedConnection connection, int phase) {
+        this.connection = connection;
+        this.phase = phase;
+    }
+
+    public HostedConnection getConnection() {
+        return connection;
+    }
+
+    public int getPhase() {
+        return phase;
+    }
+
+    public DeltaBaselines getBaselines() {
+        return baselines;
+    }
+
+    /**
+     * Priorities of the objects waiting to be sent, only used by the sender while draining the channel.
+     *
+     * @return The priority accumulator of the client
+     */
+    public PriorityAccumulator getPriorities() {
+        return priorities;
+    }
+
+    /**
+     * Last states sent to the client, only used by the sender while draining the channel.
+     *
+     * @return The dead reckoning of the client
+     */
+    public DeadReckoning getDeadReckoning() {
+        return reckoning;
+    }
+
+    /**
+     * Start streaming registrations to the client, the client is not synced until the stream is complete.
+     *
+     * @param join The registrations to stream
+     */
+    public void setJoin(JoinStream join) {
+        this.join = join;
+        this.synced = join == null;
+    }
+
+    /**
+     * @return The registrations being streamed to the client, or null if the client is synced.
+     */
+    public JoinStream getJoin() {
+        return join;
+    }
+
+    /**
+     * @return If the client has received its initial view of the world.
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * @return The objects registered with the client.
+     */
+    public VisibilitySet getVisibility() {
+        return visibility;
+    }
+
+    /**
+     * Name prefixes sent to the client, only used by the sender while draining the channel.
+     *
+     * @return The name table of the client
+     */
+    public NameTable getNames() {
+        return names;
+    }
+
+    /**
+     * @return The debug shapes sent to the client.
+     */
+    public DebugSubscription getDebug() {
+        return debug;
+    }
+
+    /**
+     * @param bytesPerSecond The budget of the client, 0 for no limit, or -1 to use the budget of the sender.
+     */
+    public void setBandwidth(int bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    public int getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * @return The timestamp of the last snapshot sent to the client, or 0 if none was sent.
+     */
+    long getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    void setLastSnapshot(long timestamp) {
+        this.lastSnapshot = timestamp;
+    }
+
+    /**
+     * Only used by the sender while draining the channel.
+     *
+     * @return The sequence number of the next interval states are sent to the client in.
+     */
+    int nextSequence() {
+        return sequence++;
+    }
+
+    /**
+     * @return The messages sent to the client.
+     */
+    public RateCounter getMessageRate() {
+        return messageRate;
+    }
+
+    /**
+     * @return The estimated bytes sent to the client.
+     */
+    public RateCounter getByteRate() {
+        return byteRate;
+    }
+
+    /**
+     * @return The number of snapshots dropped because the client fell behind.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Queue a message for the client.
+     *
+     * @param m The message
+     * @return True if the channel needs to be scheduled for draining.
+     */
+    synchronized boolean offer(Message m) {
+        queue.add(m);
+        return schedule();
+    }
+
+    /**
+     * Queue a snapshot for the client, dropping the oldest queued snapshot if the queue is full.
+     * The channel takes a reference to the snapshot, released when the snapshot is dropped or by the sender once sent.
+     *
+     * @param snapshot The snapshot
+     * @param capacity The maximum number of snapshots that can be queued
+     * @return True if the channel needs to be scheduled for draining.
+     */
+    synchronized boolean offer(SyncSnapshot snapshot, int capacity) {
+        while (snapshots >= Math.max(capacity, 1)) {
+            //Drop the oldest snapshot, messages queued around it keep their order
+            Iterator<Object> it = queue.iterator();
+            while (it.hasNext()) {
+                Object next = it.next();
+                if (next instanceof SyncSnapshot) {
+                    it.remove();
+                    ((SyncSnapshot) next).release();
+                    break;
+                }
+            }
+            snapshots--;
+            dropped++;
+        }
+        snapshot.retain();
+        queue.add(snapshot);
+        snapshots++;
+        return schedule();
+    }
+
+    /**
+     * Take the next item to send, in the order items were queued.
+     *
+     * @return A Message or SyncSnapshot, or null if the channel is empty. When null is returned the channel is unscheduled.
+     */
+    synchronized Object poll() {
+        Object next = queue.poll();
+        if (next == null) {
+            scheduled = false;
+        } else if (next instanceof SyncSnapshot) {
+            snapshots--;
+        }
+        return next;
+    }
+
+    private boolean schedule() {
+        if (scheduled) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+}
@@ -0,0 +1,172 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * Dead reckoning of physics states from their velocities.
+ * The server keeps one instance per client, holding the last state sent to the client for each object,
+ * and skips sending states the client can already predict within a threshold.
+ * The client extrapolates with the same math, so both sides agree on the predicted pose.
+ * Instances are not thread safe.
+ */
+public class DeadReckoning {
+
+    /**
+     * States are sent at least this often, in milliseconds, even when the client predicts them,
+     * so a lost unreliable message does not leave the client extrapolating forever
+     */
+    public static final long REFRESH_INTERVAL = 1000;
+
+    private static final int STRIDE = 13;
+
+    private LongIntMap index = new LongIntMap();
+    private long[] ids = new long[64];
+    private long[] times = new long[64];
+    private float[] values = new float[64 * STRIDE];
+    private int count = 0;
+    private Vector3f pos = new Vector3f();
+    private Quaternion rot = new Quaternion();
+    private Vector3f linear = new Vector3f();
+    private Vector3f angular = new Vector3f();
+    private Vector3f sentPos = new Vector3f();
+    private Quaternion sentRot = new Quaternion();
+
+    /**
+     * Check if the client can predict a state from the last state it was sent.
+     *
+     * @param state     The new state
+     * @param timestamp The time of the new state
+     * @param distance  The maximum position error, in world units
+     * @param angle     The maximum rotation error, in radians
+     * @return True if the predicted pose is within the thresholds and the state does not need to be sent.
+     */
+    public boolean predicts(PhysicsStateData state, long timestamp, float distance, float angle) {
+        int i = index.get(state.getId());
+        if (i == LongIntMap.MISSING) {
+            return false;
+        }
+        long elapsed = timestamp - times[i];
+        if (elapsed < 0 || elapsed >= REFRESH_INTERVAL) {
+            return false;
+        }
+        int v = i * STRIDE;
+        sentPos.set(values[v], values[v + 1], values[v + 2]);
+        sentRot.set(values[v + 3], values[v + 4], values[v + 5], values[v + 6]);
+        linear.set(values[v + 7], values[v + 8], values[v + 9]);
+        angular.set(values[v + 10], values[v + 11], values[v + 12]);
+        extrapolate(sentPos, sentRot, linear, angular, elapsed / 1000f, pos, rot);
+        return pos.distance(state.getLocation()) <= distance && angleBetween(rot, state.getRotation()) <= angle;
+    }
+
+    /**
+     * Record the state sent to the client.
+     *
+     * @param state     The state
+     * @param timestamp The time of the state
+     */
+    public void record(PhysicsStateData state, long timestamp) {
+        long id = state.getId();
+        int i = index.get(id);
+        if (i == LongIntMap.MISSING) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                times = Arrays.copyOf(times, count * 2);
+                values = Arrays.copyOf(values, count * 2 * STRIDE);
+            }
+            i = count++;
+            index.put(id, i);
+            ids[i] = id;
+        }
+        times[i] = timestamp;
+        int v = i * STRIDE;
+        Vector3f p = state.getLocation();
+        Quaternion r = state.getRotation();
+        values[v] = p.x;
+        values[v + 1] = p.y;
+        values[v + 2] = p.z;
+        values[v + 3] = r.getX();
+        values[v + 4] = r.getY();
+        values[v + 5] = r.getZ();
+        values[v + 6] = r.getW();
+        Vector3f l = state.hasVelocity() ? state.getLinearVelocity() : Vector3f.ZERO;
+        Vector3f a = state.hasVelocity() ? state.getAngularVelocity() : Vector3f.ZERO;
+        values[v + 7] = l.x;
+        values[v + 8] = l.y;
+        values[v + 9] = l.z;
+        values[v + 10] = a.x;
+        values[v + 11] = a.y;
+        values[v + 12] = a.z;
+    }
+
+    /**
+     * Forget an object.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        int i = index.remove(id);
+        if (i == LongIntMap.MISSING) {
+            return;
+        }
+        int last = --count;
+        if (i != last) {
+            ids[i] = ids[last];
+            times[i] = times[last];
+            System.arraycopy(values, last * STRIDE, values, i * STRIDE, STRIDE);
+            index.put(ids[i], i);
+        }
+    }
+
+    /**
+     * Forget all objects.
+     */
+    public void clear() {
+        index.clear();
+        count = 0;
+    }
+
+    /**
+     * Extrapolate a pose by its velocities.
+     * The angular velocity is applied in physics space, as reported by the physics engine.
+     *
+     * @param pos      The location
+     * @param rot      The rotation
+     * @param linear   The linear velocity, or null for none
+     * @param angular  The angular velocity, or null for none
+     * @param seconds  The time to extrapolate by
+     * @param storePos Receives the extrapolated location, may be the location
+     * @param storeRot Receives the extrapolated rotation, may be the rotation
+     */
+    public static void extrapolate(Vector3f pos, Quaternion rot, Vector3f linear, Vector3f angular, float seconds, Vector3f storePos, Quaternion storeRot) {
+        if (linear != null) {
+            storePos.set(pos.x + linear.x * seconds, pos.y + linear.y * seconds, pos.z + linear.z * seconds);
+        } else {
+            storePos.set(pos);
+        }
+        float speed = angular != null ? angular.length() : 0;
+        if (speed < 1e-6f) {
+            storeRot.set(rot);
+            return;
+        }
+        //Rotate by the angle turned around the axis of the angular velocity
+        float half = speed * seconds * 0.5f;
+        float s = (float) Math.sin(half) / speed;
+        float dx = angular.x * s, dy = angular.y * s, dz = angular.z * s, dw = (float) Math.cos(half);
+        float x = rot.getX(), y = rot.getY(), z = rot.getZ(), w = rot.getW();
+        storeRot.set(dw * x + dx * w + dy * z - dz * y,
+                dw * y - dx * z + dy * w + dz * x,
+                dw * z + dx * y - dy * x + dz * w,
+                dw * w - dx * x - dy * y - dz * z);
+    }
+
+    /**
+     * @return The angle between two rotations, in radians.
+     */
+    public static float angleBetween(Quaternion a, Quaternion b) {
+        float dot = Math.abs(a.dot(b));
+        return dot >= 1f ? 0f : (float) (2.0 * Math.acos(dot));
+    }
+}
@@ -7,4 +7,5 @@ public class DebugData {
     //public Material mat;
     public Mesh mesh;
     public long id;
+    public int shape;
 }
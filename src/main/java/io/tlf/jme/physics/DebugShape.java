@@ -0,0 +1,43 @@
+package io.tlf.jme.physics;
+
+import com.jme3.scene.Mesh;
+import io.tlf.jme.physics.msg.PhysicsDebugMessage;
+
+/**
+ * Debug mesh of a collision shape, shared by every object with an identical shape.
+ * The id of a shape never changes, and a changed shape gets a new id,
+ * so a client that has received the mesh of an id never needs it again.
+ */
+public class DebugShape {
+
+    private final int id;
+    private final Mesh mesh;
+    private byte[] data;
+    int users = 0;
+    Object key;
+
+    public DebugShape(int id, Mesh mesh) {
+        this.id = id;
+        this.mesh = mesh;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Get the serialized mesh, which is exported the first time it is requested.
+     *
+     * @return The serialized mesh
+     */
+    public synchronized byte[] getData() {
+        if (data == null) {
+            data = PhysicsDebugMessage.export(mesh);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,142 @@
+package io.tlf.jme.physics;
+
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.util.DebugShapeFactory;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * Server side cache of debug shapes.
+ * Each collision shape is resolved to a DebugShape, and shapes with identical debug meshes resolve to the same DebugShape,
+ * so the mesh of many identical objects is only built and serialized once.
+ * A shape is rebuilt when its scale changes, a shape changed in place in any other way must be replaced on its object.
+ * The cache is not thread safe.
+ */
+public class DebugShapeCache {
+
+    private IdentityHashMap<CollisionShape, Source> sources = new IdentityHashMap<>();
+    private HashMap<MeshKey, DebugShape> shapes = new HashMap<>();
+    private int nextId = 1;
+    private int pass = 0;
+    private Vector3f scale = new Vector3f();
+
+    /**
+     * Get the debug shape of a collision shape, building it if the collision shape is new or was scaled.
+     *
+     * @param shape The collision shape
+     * @return The debug shape
+     */
+    public DebugShape get(CollisionShape shape) {
+        shape.getScale(scale);
+        Source source = sources.get(shape);
+        if (source == null || !source.scale.equals(scale)) {
+            if (source != null) {
+                release(source.shape);
+            }
+            Mesh mesh = DebugShapeFactory.getDebugMesh(shape);
+            MeshKey key = new MeshKey(mesh);
+            DebugShape debugShape = shapes.get(key);
+            if (debugShape == null) {
+                debugShape = new DebugShape(nextId++, mesh);
+                debugShape.key = key;
+                shapes.put(key, debugShape);
+            }
+            debugShape.users++;
+            source = new Source(scale.clone(), debugShape);
+            sources.put(shape, source);
+        }
+        source.pass = pass;
+        return source.shape;
+    }
+
+    /**
+     * Drop the collision shapes that were not requested since the last prune.
+     */
+    public void prune() {
+        Iterator<Source> it = sources.values().iterator();
+        while (it.hasNext()) {
+            Source source = it.next();
+            if (source.pass != pass) {
+                release(source.shape);
+                it.remove();
+            }
+        }
+        pass++;
+    }
+
+    /**
+     * @return The number of distinct debug shapes.
+     */
+    public int size() {
+        return shapes.size();
+    }
+
+    public void clear() {
+        sources.clear();
+        shapes.clear();
+    }
+
+    private void release(DebugShape shape) {
+        if (--shape.users == 0) {
+            shapes.remove(shape.key);
+        }
+    }
+
+    private static class Source {
+        private final Vector3f scale;
+        private final DebugShape shape;
+        private int pass;
+
+        Source(Vector3f scale, DebugShape shape) {
+            this.scale = scale;
+            this.shape = shape;
+        }
+    }
+
+    /**
+     * Identifies a mesh by its positions and indices.
+     */
+    private static class MeshKey {
+        private final float[] positions;
+        private final int[] indices;
+        private final int hash;
+
+        MeshKey(Mesh mesh) {
+            FloatBuffer buffer = mesh.getFloatBuffer(VertexBuffer.Type.Position);
+            positions = new float[buffer == null ? 0 : buffer.limit()];
+            if (buffer != null) {
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = buffer.get(i);
+                }
+            }
+            IndexBuffer index = mesh.getIndexBuffer();
+            indices = new int[index == null ? 0 : index.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = index.get(i);
+            }
+            hash = 31 * Arrays.hashCode(positions) + Arrays.hashCode(indices);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MeshKey)) {
+                return false;
+            }
+            MeshKey other = (MeshKey) o;
+            return hash == other.hash && Arrays.equals(positions, other.positions) && Arrays.equals(indices, other.indices);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
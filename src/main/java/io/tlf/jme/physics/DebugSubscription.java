@@ -0,0 +1,50 @@
+package io.tlf.jme.physics;
+
+import java.util.HashSet;
+
+/**
+ * Debug shapes a client has received, and the shape each object was last sent with,
+ * so debug meshes are only sent when a client subscribes or an object's shape changes.
+ */
+public class DebugSubscription {
+
+    private HashSet<Integer> shapes = new HashSet<>();
+    private LongIntMap objects = new LongIntMap();
+
+    /**
+     * Record that an object uses a shape.
+     *
+     * @param id    The object id
+     * @param shape The shape id
+     * @return True if the client has not been sent the object with the shape.
+     */
+    public synchronized boolean needsObject(long id, int shape) {
+        if (objects.get(id) == shape) {
+            return false;
+        }
+        objects.put(id, shape);
+        return true;
+    }
+
+    /**
+     * Record that the client has the mesh of a shape.
+     *
+     * @param shape The shape id
+     * @return True if the client has not been sent the mesh of the shape.
+     */
+    public synchronized boolean needsMesh(int shape) {
+        return shapes.add(shape);
+    }
+
+    public synchronized void remove(long id) {
+        objects.remove(id);
+    }
+
+    /**
+     * Forget everything sent, so the next debug update sends every object and mesh again.
+     */
+    public synchronized void clear() {
+        shapes.clear();
+        objects.clear();
+    }
+}
@@ -0,0 +1,71 @@
+package io.tlf.jme.physics;
+
+import io.tlf.jme.physics.msg.PhysicsAckMessage;
+
+/**
+ * Client side record of the delta compression snapshots received, acknowledged to the server.
+ * Each part of a snapshot is acknowledged on its own, and the most recent snapshots are acknowledged again
+ * with every acknowledgement, so a lost acknowledgement is repaired by the next one.
+ */
+public class DeltaAcks {
+
+    /**
+     * Number of recent snapshots included in each acknowledgement
+     */
+    public static final int HISTORY = 4;
+
+    private long[] snapshots = new long[HISTORY];
+    private long[] parts = new long[HISTORY];
+    private boolean changed = false;
+
+    /**
+     * Record a received part of a snapshot.
+     *
+     * @param snapshot The snapshot id, 0 if the message was not delta compressed
+     * @param part     The part of the snapshot
+     */
+    public synchronized void receive(long snapshot, int part) {
+        if (snapshot <= 0 || part < 0 || part >= DeltaBaselines.MAX_PARTS) {
+            return;
+        }
+        int slot = (int) (snapshot % HISTORY);
+        if (snapshots[slot] != snapshot) {
+            if (snapshots[slot] > snapshot) {
+                return; //A newer snapshot already took the slot
+            }
+            snapshots[slot] = snapshot;
+            parts[slot] = 0;
+        }
+        parts[slot] |= 1L << part;
+        changed = true;
+    }
+
+    /**
+     * @return An acknowledgement of the recent snapshots, or null if nothing was received since the last acknowledgement.
+     */
+    public synchronized PhysicsAckMessage poll() {
+        if (!changed) {
+            return null;
+        }
+        changed = false;
+        int count = 0;
+        for (long snapshot : snapshots) {
+            if (snapshot > 0) {
+                count++;
+            }
+        }
+        long[] ackSnapshots = new long[count];
+        long[] ackParts = new long[count];
+        int n = 0;
+        for (int i = 0; i < HISTORY; i++) {
+            if (snapshots[i] > 0) {
+                ackSnapshots[n] = snapshots[i];
+                ackParts[n++] = parts[i];
+            }
+        }
+        PhysicsAckMessage ack = new PhysicsAckMessage();
+        ack.setSnapshots(ackSnapshots);
+        ack.setParts(ackParts);
+        return ack;
+    }
+}
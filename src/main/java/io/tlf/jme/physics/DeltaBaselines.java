@@ -0,0 +1,148 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Server side record of the states a single client has acknowledged.
+ * Each sync interval sent to the client is a snapshot, split into one or more parts, one per sync message.
+ * The client acknowledges each part it receives, and the states an acknowledged part carried
+ * become the baselines for future deltas. States in a lost part never become baselines.
+ */
+public class DeltaBaselines {
+
+    /**
+     * Maximum number of parts of a snapshot that can be acknowledged, states in later parts do not become baselines
+     */
+    public static final int MAX_PARTS = 64;
+
+    private long snapshot = 0;
+    private HashMap<Long, Baseline> acked = new HashMap<>();
+    private LinkedList<Pending> pending = new LinkedList<>();
+    private Object lock = new Object();
+
+    /**
+     * Start a new snapshot.
+     *
+     * @param snapshot The id of the snapshot, ids must increase by one for each sync interval
+     */
+    public void begin(long snapshot) {
+        synchronized (lock) {
+            this.snapshot = snapshot;
+            pending.add(new Pending(snapshot));
+            //Snapshots older than the max baseline age can no longer be used as a baseline
+            while (pending.getFirst().snapshot < snapshot - PhysicsDeltaData.MAX_BASELINE_AGE) {
+                pending.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Record the state of an object, as the client will reconstruct it, in the current snapshot.
+     *
+     * @param id   The object id
+     * @param part The part of the snapshot the state is sent in
+     * @param pos  The location of the object
+     * @param rot  The rotation of the object
+     */
+    public void record(long id, int part, Vector3f pos, Quaternion rot) {
+        synchronized (lock) {
+            if (pending.size() > 0 && part < MAX_PARTS) {
+                pending.getLast().states.add(new Baseline(id, snapshot, part, pos.clone(), rot.clone()));
+            }
+        }
+    }
+
+    /**
+     * Get the acknowledged baseline of an object.
+     *
+     * @param id       The object id
+     * @param snapshot The snapshot the baseline will be used in
+     * @return The baseline, or null if the object has no baseline recent enough to be used.
+     */
+    public Baseline get(long id, long snapshot) {
+        synchronized (lock) {
+            Baseline baseline = acked.get(id);
+            if (baseline == null || snapshot - baseline.snapshot > PhysicsDeltaData.MAX_BASELINE_AGE) {
+                return null;
+            }
+            return baseline;
+        }
+    }
+
+    /**
+     * Called when the client acknowledges parts of a snapshot.
+     * Parts may be acknowledged more than once and in any order.
+     *
+     * @param ack   The id of the snapshot
+     * @param parts Bitmask of the parts of the snapshot received by the client
+     */
+    public void ack(long ack, long parts) {
+        synchronized (lock) {
+            for (Pending p : pending) {
+                if (p.snapshot != ack) {
+                    continue;
+                }
+                long promote = parts & ~p.promoted;
+                if (promote == 0) {
+                    return;
+                }
+                p.promoted |= promote;
+                for (Baseline state : p.states) {
+                    if ((promote & (1L << state.part)) != 0) {
+                        Baseline current = acked.get(state.id);
+                        if (current == null || current.snapshot < state.snapshot) {
+                            acked.put(state.id, state);
+                        }
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forget the baseline of an object, including states of it not yet acknowledged,
+     * so a late acknowledgement of a snapshot sent before the removal does not restore a baseline.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        synchronized (lock) {
+            acked.remove(id);
+            for (Pending p : pending) {
+                p.states.removeIf(state -> state.id == id);
+            }
+        }
+    }
+
+    public static class Baseline {
+        public final long id;
+        public final long snapshot;
+        public final int part;
+        public final Vector3f location;
+        public final Quaternion rotation;
+
+        private Baseline(long id, long snapshot, int part, Vector3f location, Quaternion rotation) {
+            this.id = id;
+            this.snapshot = snapshot;
+            this.part = part;
+            this.location = location;
+            this.rotation = rotation;
+        }
+    }
+
+    private static class Pending {
+        final long snapshot;
+        final ArrayList<Baseline> states = new ArrayList<>();
+        long promoted = 0;
+
+        Pending(long snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+/**
+ * Client side history of the states received for a single object, indexed by snapshot.
+ * Holds enough snapshots to resolve any baseline the server may reference.
+ */
+public class DeltaHistory {
+
+    private static final int SIZE = PhysicsDeltaData.MAX_BASELINE_AGE + 1;
+
+    private long[] snapshots = new long[SIZE];
+    private float[] states = new float[SIZE * 7];
+
+    /**
+     * Record the state of the object in a snapshot.
+     *
+     * @param snapshot The snapshot id
+     * @param pos      The location of the object
+     * @param rot      The rotation of the object
+     */
+    public void record(long snapshot, Vector3f pos, Quaternion rot) {
+        int slot = (int) (snapshot % SIZE);
+        int index = slot * 7;
+        snapshots[slot] = snapshot;
+        states[index] = pos.x;
+        states[index + 1] = pos.y;
+        states[index + 2] = pos.z;
+        states[index + 3] = rot.getX();
+        states[index + 4] = rot.getY();
+        states[index + 5] = rot.getZ();
+        states[index + 6] = rot.getW();
+    }
+
+    /**
+     * Get the state of the object in a snapshot.
+     *
+     * @param snapshot The snapshot id
+     * @param storePos Receives the location of the object
+     * @param storeRot Receives the rotation of the object
+     * @return False if the state of the object in the snapshot is not known.
+     */
+    public boolean get(long snapshot, Vector3f storePos, Quaternion storeRot) {
+        int slot = (int) (snapshot % SIZE);
+        if (snapshot <= 0 || snapshots[slot] != snapshot) {
+            return false;
+        }
+        int index = slot * 7;
+        storePos.set(states[index], states[index + 1], states[index + 2]);
+        storeRot.set(states[index + 3], states[index + 4], states[index + 5], states[index + 6]);
+        return true;
+    }
+}
@@ -0,0 +1,233 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+import java.util.Arrays;
+
+/**
+ * Client side interpolation records, stored as parallel arrays indexed by record.
+ * Each record interpolates a Spatial from the pose it had when a state arrived toward the state,
+ * and when the state has velocity, keeps extrapolating the target by dead reckoning.
+ * Records are reused, so updating the table does not allocate.
+ * The table is not thread safe.
+ */
+public class InterpolationTable {
+
+    private static final int POSE = 7; //x, y, z, qx, qy, qz, qw
+    private static final int VELOCITY = 6; //linear x, y, z, angular x, y, z
+
+    private LongIntMap index = new LongIntMap();
+    private long[] ids;
+    private Spatial[] spatials;
+    private float[] start;
+    private float[] state;
+    private float[] velocity;
+    private boolean[] hasVelocity;
+    private float[] duration;
+    private float[] elapsed;
+    private float[] age;
+    private int count = 0;
+    private Vector3f startPos = new Vector3f();
+    private Quaternion startRot = new Quaternion();
+    private Vector3f statePos = new Vector3f();
+    private Quaternion stateRot = new Quaternion();
+    private Vector3f linear = new Vector3f();
+    private Vector3f angular = new Vector3f();
+    private Vector3f targetPos = new Vector3f();
+    private Quaternion targetRot = new Quaternion();
+    private Vector3f pos = new Vector3f();
+    private Quaternion rot = new Quaternion();
+
+    public InterpolationTable() {
+        this(64);
+    }
+
+    /**
+     * @param capacity The expected number of interpolating objects
+     */
+    public InterpolationTable(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Start interpolating an object from its current pose toward a state, replacing any interpolation of the object.
+     *
+     * @param id       The object id
+     * @param spatial  The Spatial of the object
+     * @param target   The state to interpolate toward, the values are copied
+     * @param duration The time to interpolate over, in milliseconds
+     */
+    public void set(long id, Spatial spatial, PhysicsStateData target, float duration) {
+        int i = index.get(id);
+        if (i == LongIntMap.MISSING) {
+            if (count == ids.length) {
+                grow(count * 2);
+            }
+            i = count++;
+            index.put(id, i);
+            ids[i] = id;
+        }
+        spatials[i] = spatial;
+        write(start, i, spatial.getLocalTranslation(), spatial.getLocalRotation());
+        write(state, i, target.getLocation(), target.getRotation());
+        hasVelocity[i] = target.hasVelocity();
+        if (hasVelocity[i]) {
+            int v = i * VELOCITY;
+            Vector3f l = target.getLinearVelocity();
+            Vector3f a = target.getAngularVelocity();
+            velocity[v] = l.x;
+            velocity[v + 1] = l.y;
+            velocity[v + 2] = l.z;
+            velocity[v + 3] = a.x;
+            velocity[v + 4] = a.y;
+            velocity[v + 5] = a.z;
+        }
+        this.duration[i] = duration;
+        elapsed[i] = 0;
+        age[i] = 0;
+    }
+
+    /**
+     * Advance a record and apply the interpolated pose to its Spatial.
+     * Records that are too far from their target, or arrived too long after the previous state, snap to the target.
+     *
+     * @param i                  The record
+     * @param tpf                The frame time in seconds
+     * @param maxDelay           The longest time between states that is interpolated, in milliseconds
+     * @param maxDistance        The largest distance that is interpolated
+     * @param maxAngle           The largest rotation that is interpolated
+     * @param extrapolationLimit The longest time a state is extrapolated by its velocity, in milliseconds
+     * @return True if the record is complete and can be removed.
+     */
+    public boolean update(int i, float tpf, long maxDelay, float maxDistance, float maxAngle, long extrapolationLimit) {
+        Spatial obj = spatials[i];
+        age[i] += tpf * 1000;
+        read(state, i, statePos, stateRot);
+        boolean extrapolating = hasVelocity[i] && age[i] < extrapolationLimit;
+        if (hasVelocity[i]) {
+            //Dead reckon the target from the received state
+            int v = i * VELOCITY;
+            linear.set(velocity[v], velocity[v + 1], velocity[v + 2]);
+            angular.set(velocity[v + 3], velocity[v + 4], velocity[v + 5]);
+            DeadReckoning.extrapolate(statePos, stateRot, linear, angular, Math.min(age[i], extrapolationLimit) / 1000f, targetPos, targetRot);
+        } else {
+            targetPos.set(statePos);
+            targetRot.set(stateRot);
+        }
+
+        float updateDistance = obj.getLocalTranslation().distance(targetPos);
+        float updateAngle = DeadReckoning.angleBetween(obj.getLocalRotation(), targetRot);
+        if (duration[i] < maxDelay && updateDistance < maxDistance && updateAngle < maxAngle) {
+            elapsed[i] += tpf * 1000;
+            float percentInterp = elapsed[i] / duration[i];
+            if (percentInterp < 1f) {
+                read(start, i, startPos, startRot);
+                obj.setLocalTranslation(pos.interpolateLocal(startPos, targetPos, percentInterp));
+                obj.setLocalRotation(rot.slerp(startRot, targetRot, percentInterp));
+                return false;
+            }
+        }
+        obj.setLocalTranslation(targetPos);
+        obj.setLocalRotation(targetRot);
+        return !extrapolating;
+    }
+
+    /**
+     * @return The number of records.
+     */
+    public int size() {
+        return count;
+    }
+
+    public long getId(int i) {
+        return ids[i];
+    }
+
+    public Spatial getSpatial(int i) {
+        return spatials[i];
+    }
+
+    /**
+     * Remove a record, the last record is moved into its place.
+     *
+     * @param i The record
+     */
+    public void removeAt(int i) {
+        index.remove(ids[i]);
+        int last = --count;
+        if (i != last) {
+            ids[i] = ids[last];
+            spatials[i] = spatials[last];
+            System.arraycopy(start, last * POSE, start, i * POSE, POSE);
+            System.arraycopy(state, last * POSE, state, i * POSE, POSE);
+            System.arraycopy(velocity, last * VELOCITY, velocity, i * VELOCITY, VELOCITY);
+            hasVelocity[i] = hasVelocity[last];
+            duration[i] = duration[last];
+            elapsed[i] = elapsed[last];
+            age[i] = age[last];
+            index.put(ids[i], i);
+        }
+        spatials[last] = null;
+    }
+
+    /**
+     * Remove the record of an object.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        int i = index.get(id);
+        if (i != LongIntMap.MISSING) {
+            removeAt(i);
+        }
+    }
+
+    public void clear() {
+        index.clear();
+        Arrays.fill(spatials, 0, count, null);
+        count = 0;
+    }
+
+    private static void write(float[] poses, int i, Vector3f p, Quaternion r) {
+        int o = i * POSE;
+        poses[o] = p.x;
+        poses[o + 1] = p.y;
+        poses[o + 2] = p.z;
+        poses[o + 3] = r.getX();
+        poses[o + 4] = r.getY();
+        poses[o + 5] = r.getZ();
+        poses[o + 6] = r.getW();
+    }
+
+    private static void read(float[] poses, int i, Vector3f storePos, Quaternion storeRot) {
+        int o = i * POSE;
+        storePos.set(poses[o], poses[o + 1], poses[o + 2]);
+        storeRot.set(poses[o + 3], poses[o + 4], poses[o + 5], poses[o + 6]);
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        spatials = new Spatial[capacity];
+        start = new float[capacity * POSE];
+        state = new float[capacity * POSE];
+        velocity = new float[capacity * VELOCITY];
+        hasVelocity = new boolean[capacity];
+        duration = new float[capacity];
+        elapsed = new float[capacity];
+        age = new float[capacity];
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        spatials = Arrays.copyOf(spatials, capacity);
+        start = Arrays.copyOf(start, capacity * POSE);
+        state = Arrays.copyOf(state, capacity * POSE);
+        velocity = Arrays.copyOf(velocity, capacity * VELOCITY);
+        hasVelocity = Arrays.copyOf(hasVelocity, capacity);
+        duration = Arrays.copyOf(duration, capacity);
+        elapsed = Arrays.copyOf(elapsed, capacity);
+        age = Arrays.copyOf(age, capacity);
+    }
+}
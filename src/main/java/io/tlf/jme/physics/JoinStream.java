@@ -0,0 +1,128 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Vector3f;
+import io.tlf.jme.physics.msg.PhysicsSyncObjMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Registrations streamed to a joining client, nearest objects first, a budgeted chunk per sync interval.
+ * Objects removed while the stream is in progress are skipped, the removal has already been sent to the client.
+ * The stream is only used by the sender while draining the channel of the client.
+ */
+public class JoinStream {
+
+    private final RegistryView view;
+    private final LongIntMap removed = new LongIntMap();
+    private int[] order;
+    private int cursor = 0;
+
+    /**
+     * @param view The objects to register with the client
+     */
+    public JoinStream(RegistryView view) {
+        this.view = view;
+    }
+
+    /**
+     * Skip an object that was removed after the view was taken.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        removed.put(id, 0);
+    }
+
+    /**
+     * @return True if every object has been sent.
+     */
+    public boolean isComplete() {
+        return order != null && cursor >= order.length;
+    }
+
+    /**
+     * Pack the next chunk of registrations.
+     * A chunk always holds at least one registration, even if the registration alone is over the budget.
+     *
+     * @param clientPos      The position of the client, objects are ordered by distance on the first chunk
+     * @param budget         The size of the chunk in bytes
+     * @param maxMessageSize The size messages are packed up to
+     * @param messages       The list to add the messages to
+     */
+    public void next(Vector3f clientPos, int budget, int maxMessageSize, List<PhysicsSyncObjMessage> messages) {
+        if (order == null) {
+            order = order(clientPos);
+        }
+        int total = 0;
+        while (cursor < order.length && (total == 0 || total < budget)) {
+            //Find the entries of the next message
+            int start = cursor;
+            int len = 0;
+            int size = MessageSizes.OBJ_MESSAGE;
+            int end = start;
+            while (end < order.length && len < PhysicsSyncObjMessage.MAX_PACK) {
+                int i = order[end];
+                if (removed.containsKey(view.getId(i))) {
+                    end++;
+                    continue;
+                }
+                int entry = MessageSizes.registration(view.getName(i));
+                boolean full = len > 0 && size + entry > maxMessageSize;
+                boolean spent = (len > 0 || total > 0) && total + size + entry > budget;
+                if (full || spent) {
+                    break;
+                }
+                size += entry;
+                len++;
+                end++;
+            }
+            cursor = end;
+            if (len == 0) {
+                if (cursor < order.length) {
+                    break; //The budget is spent
+                }
+                continue; //Only removed objects were left
+            }
+            String[] names = new String[len];
+            int[] ids = new int[len];
+            int n = 0;
+            for (int k = start; k < end; k++) {
+                int i = order[k];
+                if (!removed.containsKey(view.getId(i))) {
+                    names[n] = view.getName(i);
+                    ids[n++] = (int) view.getId(i);
+                }
+            }
+            PhysicsSyncObjMessage objMessage = new PhysicsSyncObjMessage();
+            objMessage.setName(names);
+            objMessage.setId(ids);
+            objMessage.setRemove(new boolean[len]);
+            messages.add(objMessage);
+            total += size;
+        }
+    }
+
+    private int[] order(Vector3f clientPos) {
+        int size = view.size();
+        int[] order = new int[size];
+        if (Vector3f.isValidVector(clientPos)) {
+            //Sort by distance, the bits of a positive float sort the same as the float
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                float distance = view.distanceSquared(i, clientPos.x, clientPos.y, clientPos.z);
+                keys[i] = ((long) Float.floatToIntBits(distance) << 32) | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) keys[i];
+            }
+        } else {
+            //The client receives every object, in registry order
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+        }
+        return order;
+    }
+}
@@ -2,74 +2,163 @@ package io.tlf.jme.physics;
 
 import io.tlf.jme.physics.msg.PhysicsEchoMessage;
 
-import java.util.LinkedList;
-
+/**
+ * Latency statistics of a client, measured from echo round trips.
+ * Averages are kept in bucketed time windows with running sums, and percentiles come from a log-linear histogram
+ * of the most recent samples, so every query is constant time and nothing is allocated after construction.
+ */
 public class LatencyData {
 
-    private LinkedList<Sample> oneSecond = new LinkedList<>();
-    private LinkedList<Sample> oneMinute = new LinkedList<>();
+    /**
+     * Number of recent samples the percentiles are computed over
+     */
+    public static final int HISTOGRAM_SAMPLES = 256;
+
+    private static final int MAX_DELAY = 65535;
+    //Bins are shared with MetricHistogram
+    private static final int BINS = MetricHistogram.bin(MAX_DELAY) + 1;
+
+    private Window oneSecond = new Window(100, 10);
+    private Window oneMinute = new Window(1000, 60);
+    private int[] samples = new int[HISTOGRAM_SAMPLES];
+    private int sampleCount = 0;
+    private int sampleHead = 0;
+    private int[] histogram = new int[BINS];
+    private double jitter = 0;
+    private long lastDelay = -1;
     private Object lock = new Object();
 
     public void add(PhysicsEchoMessage msg) {
         synchronized (lock) {
             long received = System.currentTimeMillis();
-            Sample s = new Sample();
             //Round trip average
             long delta = received - msg.getServerTime();
-            s.delay = delta > 0 ? delta / 2 : 0;
-            s.timestamp = received;
-            oneSecond.push(s);
-            update();
+            long delay = delta > 0 ? delta / 2 : 0;
+            oneSecond.add(received, delay);
+            oneMinute.add(received, delay);
+
+            //Replace the oldest sample in the histogram
+            int value = (int) Math.min(delay, MAX_DELAY);
+            if (sampleCount == HISTOGRAM_SAMPLES) {
+                histogram[MetricHistogram.bin(samples[sampleHead])]--;
+            } else {
+                sampleCount++;
+            }
+            samples[sampleHead] = value;
+            sampleHead = (sampleHead + 1) % HISTOGRAM_SAMPLES;
+            histogram[MetricHistogram.bin(value)]++;
+
+            //Interarrival jitter as in RFC 3550
+            if (lastDelay >= 0) {
+                jitter += (Math.abs(delay - lastDelay) - jitter) / 16.0;
+            }
+            lastDelay = delay;
         }
     }
 
+    /**
+     * Expire samples that have left the time windows.
+     */
     public void update() {
         synchronized (lock) {
             long current = System.currentTimeMillis();
-            while (oneSecond.size() > 0) {
-                if (oneSecond.peek().timestamp < current - 1000) {
-                    oneSecond.pop();
-                } else {
-                    break;
-                }
-            }
-            Sample minuteSample = new Sample();
-            minuteSample.timestamp = current;
-            minuteSample.delay = getSecondAverage();
-            oneMinute.push(minuteSample);
-
-            while (oneMinute.size() > 0) {
-                if (oneMinute.peek().timestamp < current - 60000) {
-                    oneMinute.pop();
-                } else {
-                    break;
-                }
-            }
+            oneSecond.advance(current);
+            oneMinute.advance(current);
         }
     }
 
     public long getSecondAverage() {
         synchronized (lock) {
-            long total = 0;
-            for (Sample s : oneSecond) {
-                total += s.delay;
-            }
-            return total > 0 ? total / oneSecond.size() : 0;
+            oneSecond.advance(System.currentTimeMillis());
+            return oneSecond.average();
         }
     }
 
     public long getMinuteAverage() {
         synchronized (lock) {
-            long total = 0;
-            for (Sample s : oneMinute) {
-                total += s.delay;
+            oneMinute.advance(System.currentTimeMillis());
+            return oneMinute.average();
+        }
+    }
+
+    /**
+     * Get a percentile of the one-way latency over the most recent samples.
+     * Values are accurate to within an eighth of their magnitude.
+     *
+     * @param percentile The percentile, between 0 and 1
+     * @return The latency in milliseconds, or 0 if there are no samples.
+     */
+    public long getPercentile(double percentile) {
+        synchronized (lock) {
+            if (sampleCount == 0) {
+                return 0;
             }
-            return total > 0 ? total / oneMinute.size() : 0;
+            long target = Math.max(1, (long) Math.ceil(percentile * sampleCount));
+            long seen = 0;
+            for (int i = 0; i < BINS; i++) {
+                seen += histogram[i];
+                if (seen >= target) {
+                    return MetricHistogram.value(i);
+                }
+            }
+            return MAX_DELAY;
+        }
+    }
+
+    /**
+     * @return The mean deviation between consecutive latency samples in milliseconds.
+     */
+    public float getJitter() {
+        synchronized (lock) {
+            return (float) jitter;
         }
     }
 
-    private class Sample {
-        long delay;
-        long timestamp;
+    /**
+     * Time window split into buckets, expired a bucket at a time.
+     */
+    private static class Window {
+        private final long bucketTime;
+        private final long[] sums;
+        private final int[] counts;
+        private long tick;
+        private long total = 0;
+        private long count = 0;
+
+        Window(long bucketTime, int buckets) {
+            this.bucketTime = bucketTime;
+            this.sums = new long[buckets];
+            this.counts = new int[buckets];
+            this.tick = System.currentTimeMillis() / bucketTime;
+        }
+
+        void add(long time, long value) {
+            advance(time);
+            int bucket = (int) (tick % sums.length);
+            sums[bucket] += value;
+            counts[bucket]++;
+            total += value;
+            count++;
+        }
+
+        void advance(long time) {
+            long current = time / bucketTime;
+            if (current <= tick) {
+                return;
+            }
+            long steps = Math.min(current - tick, sums.length);
+            for (long i = 1; i <= steps; i++) {
+                int bucket = (int) ((tick + i) % sums.length);
+                total -= sums[bucket];
+                count -= counts[bucket];
+                sums[bucket] = 0;
+                counts[bucket] = 0;
+            }
+            tick = current;
+        }
+
+        long average() {
+            return count > 0 ? total / count : 0;
+        }
     }
 }
@@ -0,0 +1,169 @@
+package io.tlf.jme.physics;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to non-negative int values.
+ * Used for id to slot lookups without boxing or per-entry allocation.
+ * The map is not thread safe.
+ */
+public class LongIntMap {
+
+    /**
+     * Returned by lookups when the key is not in the map
+     */
+    public static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param capacity The expected number of entries
+     */
+    public LongIntMap(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(capacity * 2 - 1, 2)) << 1;
+        allocate(tableSize);
+    }
+
+    /**
+     * @param key The key
+     * @return The value mapped to the key, or MISSING if the key is not in the map.
+     */
+    public int get(long key) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * Map a key to a value.
+     *
+     * @param key   The key
+     * @param value The value, must not be negative
+     * @return The previous value, or MISSING if the key was not in the map.
+     */
+    public int put(long key, int value) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                int old = values[index];
+                values[index] = value;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    /**
+     * Remove a key from the map.
+     *
+     * @param key The key
+     * @return The value that was mapped to the key, or MISSING if the key was not in the map.
+     */
+    public int remove(long key) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                int old = values[index];
+                shiftBack(index);
+                size--;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * @return A new array of the keys in the map, in no particular order.
+     */
+    public long[] keys() {
+        long[] copy = new long[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                copy[n++] = keys[i];
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Close the gap left by a removed entry, so lookups never need tombstones.
+     */
+    private void shiftBack(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            if (!used[index]) {
+                break;
+            }
+            int home = hash(keys[index]) & mask;
+            //Move the entry into the gap if the gap lies between its home slot and its current slot
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        used[gap] = false;
+    }
+
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(tableSize);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        values = new int[tableSize];
+        used = new boolean[tableSize];
+        mask = tableSize - 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
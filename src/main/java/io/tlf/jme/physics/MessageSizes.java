@@ -0,0 +1,94 @@
+package io.tlf.jme.physics;
+
+import com.jme3.network.Message;
+import io.tlf.jme.physics.msg.PhysicsAckMessage;
+import io.tlf.jme.physics.msg.PhysicsDebugMessage;
+import io.tlf.jme.physics.msg.PhysicsEchoMessage;
+import io.tlf.jme.physics.msg.PhysicsSyncObjMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Estimates of the serialized size of sync messages, used to pack messages up to a byte budget.
+ * Sizes follow the SpiderMonkey serializer layout: a 2 byte length and 2 byte class id per message,
+ * a 2 byte class id per object, and a 5 byte header per array.
+ */
+public final class MessageSizes {
+
+    /**
+     * Default maximum message size, small enough to fit a UDP datagram without IP fragmentation on common links
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 1200;
+    /**
+     * Size of a PhysicsSyncMessage without any states: header, two arrays, timestamp, snapshot, part, interval and sequence
+     */
+    public static final int SYNC_MESSAGE = 4 + 2 * (2 + 5) + 8 + 8 + 4 + 8 + 4;
+    /**
+     * Size of a PhysicsSyncObjMessage without any entries: header, five arrays and the table base
+     */
+    public static final int OBJ_MESSAGE = 4 + 5 * (2 + 5) + 4;
+
+    private MessageSizes() {
+
+    }
+
+    /**
+     * Estimate the size of a message other than a PhysicsSyncMessage, which is sized as it is packed.
+     *
+     * @param m The message
+     * @return The estimated size of the message in bytes
+     */
+    public static int message(Message m) {
+        if (m instanceof PhysicsSyncObjMessage) {
+            int size = OBJ_MESSAGE;
+            for (String name : ((PhysicsSyncObjMessage) m).getName()) {
+                size += registration(name);
+            }
+            if (((PhysicsSyncObjMessage) m).getPrefixes() != null) {
+                for (String prefix : ((PhysicsSyncObjMessage) m).getPrefixes()) {
+                    size += string(prefix);
+                }
+            }
+            return size;
+        } else if (m instanceof PhysicsDebugMessage) {
+            return 4 + 2 + 5 + ((PhysicsDebugMessage) m).getMeshSize() + 4 + 4;
+        } else if (m instanceof PhysicsEchoMessage) {
+            return 4 + 8;
+        } else if (m instanceof PhysicsAckMessage) {
+            return 4 + 2 * (2 + 5) + 16 * ((PhysicsAckMessage) m).getSnapshots().length;
+        }
+        return 4;
+    }
+
+    /**
+     * @param state The state
+     * @param codec The codec the state is written with, or null for the reflective serializer
+     * @return The size of the state in a PhysicsSyncMessage
+     */
+    public static int state(PhysicsStateData state, PhysicsStateCodec codec) {
+        if (codec != null) {
+            return 2 + codec.sizeOf(state);
+        }
+        return PhysicsStateData.ESTIMATED_SIZE + (state.hasVelocity() ? PhysicsStateData.ESTIMATED_VELOCITY_SIZE : 0);
+    }
+
+    /**
+     * @param delta The delta
+     * @return The size of the delta in a PhysicsSyncMessage
+     */
+    public static int delta(PhysicsDeltaData delta) {
+        return 2 + 4 + 1 + 1 + 2 + 5 + 2 * delta.getDelta().length;
+    }
+
+    /**
+     * @param name The name of the object, or the suffix of the name once encoded
+     * @return The size of a registration entry in a PhysicsSyncObjMessage: name, id, remove flag and prefix
+     */
+    public static int registration(String name) {
+        return string(name) + 4 + 1 + 2;
+    }
+
+    private static int string(String s) {
+        return s == null ? 1 : 2 + 5 + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,99 @@
+package io.tlf.jme.physics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent log-linear histogram of non-negative values.
+ * Values below 16 are counted exactly, and each octave above is split into 8 bins,
+ * so percentiles are accurate to within an eighth of their magnitude.
+ * Recording is a few atomic adds and never allocates.
+ */
+public class MetricHistogram {
+
+    private static final int LINEAR_BINS = 16;
+    private static final int SUB_BINS = 8;
+    private static final int BINS = bin(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray bins = new AtomicLongArray(BINS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param value The value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        bins.incrementAndGet(bin(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The mean of the recorded values, or 0 if none were recorded.
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n > 0 ? (double) sum.sum() / n : 0;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 1
+     * @return The value at the percentile, or 0 if no values were recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BINS; i++) {
+            n += bins.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile * n));
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            seen += bins.get(i);
+            if (seen >= target) {
+                return value(i);
+            }
+        }
+        return value(BINS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BINS; i++) {
+            bins.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+    }
+
+    /**
+     * @param value A non-negative value
+     * @return The bin the value is counted in
+     */
+    static int bin(long value) {
+        if (value < LINEAR_BINS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 3;
+        return LINEAR_BINS + (shift - 1) * SUB_BINS + (int) (value >> shift) - SUB_BINS;
+    }
+
+    /**
+     * @param bin The bin
+     * @return The value in the middle of the bin
+     */
+    static long value(int bin) {
+        if (bin < LINEAR_BINS) {
+            return bin;
+        }
+        int shift = (bin - LINEAR_BINS) / SUB_BINS + 1;
+        long low = (long) ((bin - LINEAR_BINS) % SUB_BINS + SUB_BINS) << shift;
+        return low + (1L << shift) / 2; //Middle of the bin
+    }
+}
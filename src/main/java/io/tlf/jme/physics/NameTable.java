@@ -0,0 +1,127 @@
+package io.tlf.jme.physics;
+
+import io.tlf.jme.physics.msg.PhysicsSyncObjMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Table of name prefixes shared by the server and a client, so the prefix of names like "crate-12" is only sent once.
+ * A name is split into a prefix and its trailing digits. The server adds prefixes to the table of a client as registrations
+ * are sent, and the client builds the same table from the prefixes carried by the registrations.
+ * Registrations are reliable and ordered, so both tables always hold the same prefixes in the same order.
+ * A table is only used by one thread at a time.
+ */
+public class NameTable {
+
+    /**
+     * Maximum number of prefixes, names with a prefix that does not fit in the table are sent whole
+     */
+    public static final int MAX_SIZE = Short.MAX_VALUE;
+
+    private HashMap<String, Integer> indices = new HashMap<>();
+    private ArrayList<String> prefixes = new ArrayList<>();
+
+    /**
+     * Encode the names of a registration message against the table, adding new prefixes to the table.
+     * The names of removed objects are not needed by the client and are dropped.
+     *
+     * @param msg The message with whole names
+     * @return A new message with encoded names
+     */
+    public PhysicsSyncObjMessage encode(PhysicsSyncObjMessage msg) {
+        String[] names = msg.getName();
+        boolean[] remove = msg.getRemove();
+        String[] suffixes = new String[names.length];
+        short[] prefix = new short[names.length];
+        ArrayList<String> added = new ArrayList<>();
+        int base = prefixes.size();
+        for (int i = 0; i < names.length; i++) {
+            prefix[i] = -1;
+            if (remove[i] || names[i] == null) {
+                continue;
+            }
+            int split = split(names[i]);
+            Integer index = null;
+            if (split > 0) {
+                String p = names[i].substring(0, split);
+                index = indices.get(p);
+                if (index == null && prefixes.size() < MAX_SIZE) {
+                    index = prefixes.size();
+                    prefixes.add(p);
+                    indices.put(p, index);
+                    added.add(p);
+                }
+            }
+            if (index != null) {
+                prefix[i] = index.shortValue();
+                suffixes[i] = names[i].substring(split);
+            } else {
+                suffixes[i] = names[i];
+            }
+        }
+        PhysicsSyncObjMessage encoded = new PhysicsSyncObjMessage();
+        encoded.setName(suffixes);
+        encoded.setId(msg.getId());
+        encoded.setRemove(remove);
+        encoded.setPrefix(prefix);
+        encoded.setPrefixes(added.toArray(new String[0]));
+        encoded.setTableBase(base);
+        return encoded;
+    }
+
+    /**
+     * Decode the names of a registration message, adding the prefixes carried by the message to the table.
+     *
+     * @param msg The message
+     * @return The whole names, null for removed objects
+     */
+    public String[] decode(PhysicsSyncObjMessage msg) {
+        String[] names = msg.getName();
+        short[] prefix = msg.getPrefix();
+        if (prefix == null) {
+            return names; //The names were not encoded
+        }
+        //The server starts a new table for each connection, drop anything left from an earlier connection
+        while (prefixes.size() > msg.getTableBase()) {
+            indices.remove(prefixes.remove(prefixes.size() - 1));
+        }
+        for (String p : msg.getPrefixes()) {
+            indices.put(p, prefixes.size());
+            prefixes.add(p);
+        }
+        String[] decoded = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (prefix[i] >= 0 && prefix[i] < prefixes.size()) {
+                decoded[i] = prefixes.get(prefix[i]) + names[i];
+            } else {
+                decoded[i] = names[i];
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @return The number of prefixes in the table.
+     */
+    public int size() {
+        return prefixes.size();
+    }
+
+    public void clear() {
+        indices.clear();
+        prefixes.clear();
+    }
+
+    /**
+     * @param name The name
+     * @return The length of the prefix of the name, the name without its trailing digits. 0 if the name has no prefix.
+     */
+    static int split(String name) {
+        int split = name.length();
+        while (split > 0 && Character.isDigit(name.charAt(split - 1))) {
+            split--;
+        }
+        return split == name.length() ? 0 : split;
+    }
+}
@@ -0,0 +1,486 @@
+package io.tlf.jme.physics;
+
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Registry of the objects in the sync engine.
+ * Each object occupies a slot, and per-object data is stored in parallel arrays indexed by slot,
+ * so walking the registry is a walk over arrays instead of map entries.
+ * Slots of removed objects are reused. The registry is not thread safe.
+ * <p>
+ * Objects are identified by a network id, made of the slot of the object and a generation counter of the slot.
+ * Network ids are dense, so they stay small on the wire, and a reused slot gets a new id,
+ * so a late message for a removed object is never applied to the object that took its slot.
+ * <p>
+ * Dirty objects are also kept in an active list and a stale list,
+ * so only objects that are moving, or have just stopped, need to be visited each tick.
+ * Sleeping objects are kept in a spatial index by the position they fell asleep at,
+ * so the sleeping objects an active object may have woken can be found without visiting every object.
+ */
+public class ObjectRegistry {
+
+    /**
+     * The object does not need synced
+     */
+    public static final byte CLEAN = 0;
+    /**
+     * The object has stopped moving, and its final state still needs synced
+     */
+    public static final byte STALE = 1;
+    /**
+     * The object is moving and needs synced
+     */
+    public static final byte ACTIVE = 2;
+    /**
+     * The low bits of a network id hold the slot of the object, the bits above hold the generation of the slot
+     */
+    public static final int SLOT_BITS = 24;
+    /**
+     * Mask of the slot bits of a network id
+     */
+    public static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    /**
+     * Generations wrap at 128, so network ids are never negative
+     */
+    private static final int GENERATIONS = 1 << (31 - SLOT_BITS);
+    /**
+     * Objects are in reach of each other when their bounding spheres are within this factor of touching
+     */
+    private static final float CONTACT_SLACK = 1.25f;
+
+    private LongIntMap slots = new LongIntMap();
+    private Spatial[] spatials;
+    private long[] ids;
+    private long[] objectIds;
+    private int[] generations;
+    private byte[] dirty;
+    private PhysicsCollisionObject[] bodies;
+    private int[] activeIndex;
+    private int[] active;
+    private int activeCount = 0;
+    private int[] stale;
+    private boolean[] staleListed;
+    private int staleCount = 0;
+    private int[] free;
+    private int freeCount = 0;
+    private int limit = 0;
+    //Ids and names of the registry, shared by the views taken while the registry is unchanged
+    private long[] viewIds;
+    private String[] viewNames;
+    //Sleeping objects by slot, with the radius of their bound when they fell asleep
+    private SpatialIndex sleeping = new SpatialIndex(1f);
+    private float[] sleepingRadius;
+    private float maxSleepingRadius = 0;
+    private int[] candidates = new int[16];
+    private int candidateCount = 0;
+    private Vector3f tmp = new Vector3f();
+    private final LongConsumer collect = slot -> {
+        if (candidateCount == candidates.length) {
+            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+        }
+        candidates[candidateCount++] = (int) slot;
+    };
+
+    public ObjectRegistry() {
+        this(64);
+    }
+
+    /**
+     * @param capacity The expected number of objects
+     */
+    public ObjectRegistry(int capacity) {
+        capacity = Math.max(capacity, 1);
+        spatials = new Spatial[capacity];
+        ids = new long[capacity];
+        objectIds = new long[capacity];
+        generations = new int[capacity];
+        dirty = new byte[capacity];
+        bodies = new PhysicsCollisionObject[capacity];
+        activeIndex = new int[capacity];
+        active = new int[capacity];
+        stale = new int[capacity];
+        staleListed = new boolean[capacity];
+        sleepingRadius = new float[capacity];
+        free = new int[capacity];
+    }
+
+    /**
+     * Add an object, or replace the Spatial of an object already in the registry.
+     *
+     * @param objectId The id of the collision object
+     * @param s        The Spatial of the object
+     * @param body     The collision object of the Spatial
+     * @return The slot of the object
+     */
+    public int add(long objectId, Spatial s, PhysicsCollisionObject body) {
+        int slot = slots.get(objectId);
+        if (slot == LongIntMap.MISSING) {
+            if (freeCount > 0) {
+                slot = free[--freeCount];
+            } else {
+                if (limit == spatials.length) {
+                    grow(limit * 2);
+                }
+                slot = limit++;
+            }
+            slots.put(objectId, slot);
+            ids[slot] = slot | ((long) generations[slot] << SLOT_BITS);
+            objectIds[slot] = objectId;
+            viewIds = null;
+            dirty[slot] = CLEAN;
+            activeIndex[slot] = -1;
+        }
+        if (spatials[slot] != s) {
+            viewIds = null;
+        }
+        spatials[slot] = s;
+        bodies[slot] = body;
+        return slot;
+    }
+
+    /**
+     * Remove an object.
+     *
+     * @param id The network id of the object
+     * @return The slot the object occupied, or -1 if the object is not in the registry.
+     */
+    public int remove(long id) {
+        int slot = slot(id);
+        if (slot != LongIntMap.MISSING) {
+            slots.remove(objectIds[slot]);
+            generations[slot] = (generations[slot] + 1) % GENERATIONS;
+            deactivate(slot);
+            sleeping.remove(slot);
+            spatials[slot] = null;
+            bodies[slot] = null;
+            dirty[slot] = CLEAN;
+            free[freeCount++] = slot;
+            viewIds = null;
+        }
+        return slot;
+    }
+
+    /**
+     * @param id The network id of the object
+     * @return The slot of the object, or -1 if the object is not in the registry.
+     */
+    public int slot(long id) {
+        int slot = (int) (id & SLOT_MASK);
+        if (slot < limit && spatials[slot] != null && ids[slot] == id) {
+            return slot;
+        }
+        return LongIntMap.MISSING;
+    }
+
+    /**
+     * @return The number of objects in the registry.
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Slots are in the range 0 to limit, empty slots have a null Spatial.
+     *
+     * @return One past the highest slot in use.
+     */
+    public int limit() {
+        return limit;
+    }
+
+    public Spatial getSpatial(int slot) {
+        return spatials[slot];
+    }
+
+    /**
+     * @param slot The slot of the object
+     * @return The network id of the object
+     */
+    public long getId(int slot) {
+        return ids[slot];
+    }
+
+    public byte getDirty(int slot) {
+        return dirty[slot];
+    }
+
+    public void setDirty(int slot, byte state) {
+        dirty[slot] = state;
+    }
+
+    public PhysicsCollisionObject getBody(int slot) {
+        return bodies[slot];
+    }
+
+    /**
+     * Mark an object as moving, it will be synced until it is found to be inactive.
+     *
+     * @param slot The slot of the object
+     */
+    public void activate(int slot) {
+        sleeping.remove(slot);
+        dirty[slot] = ACTIVE;
+        if (activeIndex[slot] < 0) {
+            activeIndex[slot] = activeCount;
+            active[activeCount++] = slot;
+        }
+    }
+
+    /**
+     * Activate the objects in a range of slots whose bodies are awake but not marked active.
+     * This is a safety net for bodies woken away from any active object, such as through a joint,
+     * the registry is swept a range of slots at a time to find them.
+     *
+     * @param from  The first slot to check
+     * @param count The number of slots to check
+     * @return The slot to continue the sweep from, wrapping to 0 at the limit.
+     */
+    public int wake(int from, int count) {
+        int slot = from < limit ? from : 0;
+        count = Math.min(count, limit);
+        for (int i = 0; i < count; i++) {
+            if (spatials[slot] != null && dirty[slot] != ACTIVE && bodies[slot].isActive()) {
+                activate(slot);
+            }
+            if (++slot == limit) {
+                slot = 0;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Activate the sleeping objects in reach of an active object whose bodies were woken.
+     * Bullet wakes a sleeping body when an active body comes into contact with it, along with the rest of its island,
+     * so only the sleeping objects within reach of an active object need their body checked.
+     * Objects activated here are checked in turn, so an island woken through a chain of contacts is found in one call.
+     *
+     * @return The number of objects activated
+     */
+    public int wakeContacts() {
+        int woken = 0;
+        for (int i = 0; i < activeCount && sleeping.size() > 0; i++) {
+            Spatial s = spatials[active[i]];
+            Vector3f pos = s.getWorldTranslation();
+            float radius = SyncSnapshot.radius(s.getWorldBound());
+            candidateCount = 0;
+            sleeping.query(pos, (radius + maxSleepingRadius) * CONTACT_SLACK, collect);
+            for (int c = 0; c < candidateCount; c++) {
+                int slot = candidates[c];
+                float reach = (radius + sleepingRadius[slot]) * CONTACT_SLACK;
+                if (sleeping.get(slot, tmp) && tmp.distanceSquared(pos) <= reach * reach && bodies[slot].isActive()) {
+                    activate(slot);
+                    woken++;
+                }
+            }
+        }
+        return woken;
+    }
+
+    /**
+     * Mark an active object as stopped, its final state will be synced once.
+     *
+     * @param slot The slot of the object
+     */
+    public void stop(int slot) {
+        deactivate(slot);
+        dirty[slot] = STALE;
+        if (!staleListed[slot]) {
+            staleListed[slot] = true;
+            stale[staleCount++] = slot;
+        }
+        sleep(slot);
+    }
+
+    /**
+     * @return The number of active objects.
+     */
+    public int activeCount() {
+        return activeCount;
+    }
+
+    /**
+     * @param index The index in the active list
+     * @return The slot of the active object
+     */
+    public int getActive(int index) {
+        return active[index];
+    }
+
+    /**
+     * @return The number of objects that stopped since the stale list was last cleared.
+     */
+    public int staleCount() {
+        return staleCount;
+    }
+
+    /**
+     * Objects in the stale list may have been removed or activated again since they were added,
+     * check the dirty state before using the object.
+     *
+     * @param index The index in the stale list
+     * @return The slot of the stale object
+     */
+    public int getStale(int index) {
+        return stale[index];
+    }
+
+    /**
+     * Mark all stale objects as clean, after their final state has been synced.
+     */
+    public void clearStale() {
+        for (int i = 0; i < staleCount; i++) {
+            staleListed[stale[i]] = false;
+            if (dirty[stale[i]] == STALE) {
+                dirty[stale[i]] = CLEAN;
+            }
+        }
+        staleCount = 0;
+    }
+
+    /**
+     * @return A new list of the Spatials in the registry.
+     */
+    public ArrayList<Spatial> spatials() {
+        ArrayList<Spatial> list = new ArrayList<>(size());
+        for (int i = 0; i < limit; i++) {
+            if (spatials[i] != null) {
+                list.add(spatials[i]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get a copy of the objects in the registry.
+     * The ids and names are reused until an object is added or removed, so views requested together share them.
+     * Positions are copied on each call, so a join stream is ordered by where objects are when the join starts.
+     *
+     * @return The view of the registry
+     */
+    public RegistryView view() {
+        if (viewIds == null) {
+            int size = size();
+            viewIds = new long[size];
+            viewNames = new String[size];
+            int n = 0;
+            for (int i = 0; i < limit; i++) {
+                if (spatials[i] != null) {
+                    viewIds[n] = ids[i];
+                    viewNames[n++] = spatials[i].getName();
+                }
+            }
+        }
+        float[] positions = new float[viewIds.length * 3];
+        for (int n = 0; n < viewIds.length; n++) {
+            Vector3f pos = spatials[(int) (viewIds[n] & SLOT_MASK)].getWorldTranslation();
+            positions[n * 3] = pos.x;
+            positions[n * 3 + 1] = pos.y;
+            positions[n * 3 + 2] = pos.z;
+        }
+        return new RegistryView(viewIds, viewNames, positions);
+    }
+
+    /**
+     * Get a copy of some of the objects in the registry.
+     * Ids that are not in the registry are skipped.
+     *
+     * @param objects The ids of the objects
+     * @return The view of the objects
+     */
+    public RegistryView view(List<Long> objects) {
+        long[] viewIds = new long[objects.size()];
+        String[] names = new String[objects.size()];
+        float[] positions = new float[objects.size() * 3];
+        int n = 0;
+        for (long id : objects) {
+            int slot = slot(id);
+            if (slot != LongIntMap.MISSING) {
+                Vector3f pos = spatials[slot].getWorldTranslation();
+                viewIds[n] = id;
+                names[n] = spatials[slot].getName();
+                positions[n * 3] = pos.x;
+                positions[n * 3 + 1] = pos.y;
+                positions[n * 3 + 2] = pos.z;
+                n++;
+            }
+        }
+        return new RegistryView(Arrays.copyOf(viewIds, n), Arrays.copyOf(names, n), Arrays.copyOf(positions, n * 3));
+    }
+
+    /**
+     * @return A new array of the ids in the registry.
+     */
+    public long[] ids() {
+        long[] copy = new long[size()];
+        int n = 0;
+        for (int i = 0; i < limit; i++) {
+            if (spatials[i] != null) {
+                copy[n++] = ids[i];
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Index a sleeping object, so it is checked when an active object comes within reach.
+     */
+    private void sleep(int slot) {
+        if (isStatic(slot)) {
+            return; //Static bodies are never woken by a contact
+        }
+        Spatial s = spatials[slot];
+        float radius = SyncSnapshot.radius(s.getWorldBound());
+        sleepingRadius[slot] = radius;
+        maxSleepingRadius = Math.max(maxSleepingRadius, radius);
+        if (radius * 2f > sleeping.getCellSize()) {
+            //Keep cells about the size of the queries, changing the cell size clears the index
+            sleeping.setCellSize(radius * 2f);
+            for (int i = 0; i < limit; i++) {
+                if (spatials[i] != null && dirty[i] != ACTIVE && i != slot && !isStatic(i)) {
+                    sleeping.put(i, spatials[i].getWorldTranslation());
+                }
+            }
+        }
+        sleeping.put(slot, s.getWorldTranslation());
+    }
+
+    private boolean isStatic(int slot) {
+        PhysicsCollisionObject body = bodies[slot];
+        return body instanceof PhysicsRigidBody && ((PhysicsRigidBody) body).getMass() == 0;
+    }
+
+    private void deactivate(int slot) {
+        int index = activeIndex[slot];
+        if (index >= 0) {
+            //Swap the last active object into the freed spot
+            int last = active[--activeCount];
+            active[index] = last;
+            activeIndex[last] = index;
+            activeIndex[slot] = -1;
+        }
+    }
+
+    private void grow(int capacity) {
+        spatials = Arrays.copyOf(spatials, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        objectIds = Arrays.copyOf(objectIds, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+        bodies = Arrays.copyOf(bodies, capacity);
+        activeIndex = Arrays.copyOf(activeIndex, capacity);
+        active = Arrays.copyOf(active, capacity);
+        stale = Arrays.copyOf(stale, capacity);
+        staleListed = Arrays.copyOf(staleListed, capacity);
+        sleepingRadius = Arrays.copyOf(sleepingRadius, capacity);
+        free = Arrays.copyOf(free, capacity);
+    }
+}
@@ -0,0 +1,220 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.network.serializing.Serializable;
+
+/**
+ * A physics state encoded as a quantized delta against a baseline the client has acknowledged.
+ * Only the fields that changed from the baseline are carried in the delta array.
+ * Velocities, when synced, are carried whole at the end of the delta array.
+ */
+@Serializable
+public class PhysicsDeltaData {
+
+    /**
+     * Position deltas are quantized to millimeters
+     */
+    public static final float POSITION_SCALE = 1000f;
+    /**
+     * Rotation deltas are quantized to 1/10000 of a quaternion component
+     */
+    public static final float ROTATION_SCALE = 10000f;
+    /**
+     * Maximum number of sync intervals a baseline may be behind the snapshot it is used in
+     */
+    public static final int MAX_BASELINE_AGE = 32;
+
+    private static final int ROTATION_BIT = 1 << 3;
+    private static final int VELOCITY_BIT = 1 << 4;
+
+    private int id;
+    private byte baseline;
+    private byte mask;
+    private short[] delta;
+
+    public PhysicsDeltaData() {
+
+    }
+
+    /**
+     * Encode the delta between a baseline and a new state.
+     *
+     * @param id          The network id of the object
+     * @param baselineAge How many sync intervals the baseline is behind the snapshot being encoded
+     * @param basePos     The baseline location
+     * @param baseRot     The baseline rotation
+     * @param pos         The new location
+     * @param rot         The new rotation
+     * @return The encoded delta, or null if the change is too large to be encoded as a delta.
+     */
+    public static PhysicsDeltaData encode(long id, int baselineAge, Vector3f basePos, Quaternion baseRot, Vector3f pos, Quaternion rot) {
+        return encode(id, baselineAge, basePos, baseRot, pos, rot, null, null);
+    }
+
+    /**
+     * Encode the delta between a baseline and a new state with velocity.
+     *
+     * @param id          The network id of the object
+     * @param baselineAge How many sync intervals the baseline is behind the snapshot being encoded
+     * @param basePos     The baseline location
+     * @param baseRot     The baseline rotation
+     * @param pos         The new location
+     * @param rot         The new rotation
+     * @param linear      The linear velocity, or null if velocity is not synced
+     * @param angular     The angular velocity, or null if velocity is not synced
+     * @return The encoded delta, or null if the change is too large to be encoded as a delta.
+     */
+    public static PhysicsDeltaData encode(long id, int baselineAge, Vector3f basePos, Quaternion baseRot, Vector3f pos, Quaternion rot, Vector3f linear, Vector3f angular) {
+        if (baselineAge < 1 || baselineAge > MAX_BASELINE_AGE) {
+            return null;
+        }
+        int[] values = new int[7];
+        values[0] = Math.round((pos.x - basePos.x) * POSITION_SCALE);
+        values[1] = Math.round((pos.y - basePos.y) * POSITION_SCALE);
+        values[2] = Math.round((pos.z - basePos.z) * POSITION_SCALE);
+        values[3] = Math.round((rot.getX() - baseRot.getX()) * ROTATION_SCALE);
+        values[4] = Math.round((rot.getY() - baseRot.getY()) * ROTATION_SCALE);
+        values[5] = Math.round((rot.getZ() - baseRot.getZ()) * ROTATION_SCALE);
+        values[6] = Math.round((rot.getW() - baseRot.getW()) * ROTATION_SCALE);
+
+        int mask = 0;
+        int count = 0;
+        for (int i = 0; i < 3; i++) {
+            if (values[i] < Short.MIN_VALUE || values[i] > Short.MAX_VALUE) {
+                return null; //Moved too far for a delta
+            }
+            if (values[i] != 0) {
+                mask |= 1 << i;
+                count++;
+            }
+        }
+        if (values[3] != 0 || values[4] != 0 || values[5] != 0 || values[6] != 0) {
+            mask |= ROTATION_BIT;
+            count += 4;
+        }
+        if (linear != null && angular != null) {
+            mask |= VELOCITY_BIT;
+            count += 6;
+        }
+
+        short[] delta = new short[count];
+        int index = 0;
+        for (int i = 0; i < 3; i++) {
+            if ((mask & (1 << i)) != 0) {
+                delta[index++] = (short) values[i];
+            }
+        }
+        if ((mask & ROTATION_BIT) != 0) {
+            for (int i = 3; i < 7; i++) {
+                delta[index++] = (short) values[i];
+            }
+        }
+        if ((mask & VELOCITY_BIT) != 0) {
+            delta[index++] = PhysicsStateData.quantizeVelocity(linear.x, PhysicsStateData.VELOCITY_SCALE);
+            delta[index++] = PhysicsStateData.quantizeVelocity(linear.y, PhysicsStateData.VELOCITY_SCALE);
+            delta[index++] = PhysicsStateData.quantizeVelocity(linear.z, PhysicsStateData.VELOCITY_SCALE);
+            delta[index++] = PhysicsStateData.quantizeVelocity(angular.x, PhysicsStateData.ANGULAR_VELOCITY_SCALE);
+            delta[index++] = PhysicsStateData.quantizeVelocity(angular.y, PhysicsStateData.ANGULAR_VELOCITY_SCALE);
+            delta[index] = PhysicsStateData.quantizeVelocity(angular.z, PhysicsStateData.ANGULAR_VELOCITY_SCALE);
+        }
+
+        PhysicsDeltaData data = new PhysicsDeltaData();
+        data.id = (int) id;
+        data.baseline = (byte) baselineAge;
+        data.mask = (byte) mask;
+        data.delta = delta;
+        return data;
+    }
+
+    /**
+     * Apply the delta to a baseline.
+     * The server and client both reconstruct states through this method, so they always agree on the result.
+     *
+     * @param basePos  The baseline location
+     * @param baseRot  The baseline rotation
+     * @param storePos Receives the new location, may be the baseline location
+     * @param storeRot Receives the new rotation, may be the baseline rotation
+     */
+    public void apply(Vector3f basePos, Quaternion baseRot, Vector3f storePos, Quaternion storeRot) {
+        int index = 0;
+        float x = basePos.x, y = basePos.y, z = basePos.z;
+        if ((mask & 1) != 0) {
+            x += delta[index++] / POSITION_SCALE;
+        }
+        if ((mask & 2) != 0) {
+            y += delta[index++] / POSITION_SCALE;
+        }
+        if ((mask & 4) != 0) {
+            z += delta[index++] / POSITION_SCALE;
+        }
+        storePos.set(x, y, z);
+        if ((mask & ROTATION_BIT) != 0) {
+            storeRot.set(baseRot.getX() + delta[index++] / ROTATION_SCALE,
+                    baseRot.getY() + delta[index++] / ROTATION_SCALE,
+                    baseRot.getZ() + delta[index++] / ROTATION_SCALE,
+                    baseRot.getW() + delta[index] / ROTATION_SCALE);
+        } else {
+            storeRot.set(baseRot);
+        }
+    }
+
+    /**
+     * Read the velocities carried by the delta.
+     *
+     * @param storeLinear  Receives the linear velocity
+     * @param storeAngular Receives the angular velocity
+     * @return True if the delta carries velocities.
+     */
+    public boolean getVelocity(Vector3f storeLinear, Vector3f storeAngular) {
+        if ((mask & VELOCITY_BIT) == 0) {
+            return false;
+        }
+        int index = delta.length - 6;
+        storeLinear.set(delta[index] / PhysicsStateData.VELOCITY_SCALE,
+                delta[index + 1] / PhysicsStateData.VELOCITY_SCALE,
+                delta[index + 2] / PhysicsStateData.VELOCITY_SCALE);
+        storeAngular.set(delta[index + 3] / PhysicsStateData.ANGULAR_VELOCITY_SCALE,
+                delta[index + 4] / PhysicsStateData.ANGULAR_VELOCITY_SCALE,
+                delta[index + 5] / PhysicsStateData.ANGULAR_VELOCITY_SCALE);
+        return true;
+    }
+
+    /**
+     * @return The network id of the object
+     */
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = (int) id;
+    }
+
+    /**
+     * @return How many sync intervals the baseline is behind the snapshot containing this delta.
+     */
+    public int getBaseline() {
+        return baseline;
+    }
+
+    public void setBaseline(int baseline) {
+        this.baseline = (byte) baseline;
+    }
+
+    public byte getMask() {
+        return mask;
+    }
+
+    public void setMask(byte mask) {
+        this.mask = mask;
+    }
+
+    public short[] getDelta() {
+        return delta;
+    }
+
+    public void setDelta(short[] delta) {
+        this.delta = delta;
+    }
+}
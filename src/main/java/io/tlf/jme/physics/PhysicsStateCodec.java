@@ -0,0 +1,256 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact wire encoding for physics states.
+ * The id is written as a varint, the location as fixed-point values relative to the world bounds,
+ * and the rotation as a smallest-three quaternion packed into 32 bits.
+ * The lowest bit of the id varint flags velocities, which follow as six quantized shorts.
+ * Locations outside of the world bounds are clamped to the bounds.
+ */
+public class PhysicsStateCodec {
+
+    private static final float ROTATION_RANGE = (float) (1.0 / Math.sqrt(2.0));
+    private static final int ROTATION_BITS = 10;
+    private static final int ROTATION_MAX = (1 << ROTATION_BITS) - 1;
+
+    private static volatile PhysicsStateCodec defaultCodec = new PhysicsStateCodec(new Vector3f(-1024f, -1024f, -1024f), new Vector3f(1024f, 1024f, 1024f), 0.001f);
+
+    private final Vector3f min;
+    private final Vector3f max;
+    private final float precision;
+    private final int positionBits;
+    private final int positionBytes;
+    private final long positionMax;
+
+    /**
+     * @param min       The minimum corner of the world bounds
+     * @param max       The maximum corner of the world bounds
+     * @param precision The smallest distance that can be represented, in world units
+     */
+    public PhysicsStateCodec(Vector3f min, Vector3f max, float precision) {
+        this.min = min.clone();
+        this.max = max.clone();
+        this.precision = precision;
+        float extent = Math.max(max.x - min.x, Math.max(max.y - min.y, max.z - min.z));
+        long steps = (long) Math.ceil(extent / precision);
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(steps, 1));
+        if (bits > 21) {
+            throw new IllegalArgumentException("World bounds are too large for the precision, use a coarser precision or smaller bounds");
+        }
+        this.positionBits = bits;
+        this.positionBytes = (bits * 3 + 7) / 8;
+        this.positionMax = (1L << bits) - 1;
+    }
+
+    /**
+     * Get the codec used by serializers that are created without a codec.
+     * Clients receive serializer registrations from the server and create serializers without a codec,
+     * so the client must set the same default codec as the server before connecting.
+     *
+     * @return The default codec
+     */
+    public static PhysicsStateCodec getDefault() {
+        return defaultCodec;
+    }
+
+    /**
+     * Set the codec used by serializers that are created without a codec.
+     *
+     * @param codec The default codec
+     */
+    public static void setDefault(PhysicsStateCodec codec) {
+        defaultCodec = codec;
+    }
+
+    public Vector3f getMin() {
+        return min.clone();
+    }
+
+    public Vector3f getMax() {
+        return max.clone();
+    }
+
+    public float getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Encode a physics state.
+     *
+     * @param buffer The buffer to write to
+     * @param state  The state to write
+     */
+    public void write(ByteBuffer buffer, PhysicsStateData state) {
+        boolean velocity = state.hasVelocity();
+        writeVarLong(buffer, (state.getId() << 1) | (velocity ? 1 : 0));
+        Vector3f pos = state.getLocation();
+        long packed = quantize(pos.x, min.x) | (quantize(pos.y, min.y) << positionBits) | (quantize(pos.z, min.z) << (positionBits * 2));
+        for (int i = 0; i < positionBytes; i++) {
+            buffer.put((byte) (packed >>> (i * 8)));
+        }
+        buffer.putInt(packRotation(state.getRotation()));
+        if (velocity) {
+            writeVelocity(buffer, state.getLinearVelocity(), PhysicsStateData.VELOCITY_SCALE);
+            writeVelocity(buffer, state.getAngularVelocity(), PhysicsStateData.ANGULAR_VELOCITY_SCALE);
+        }
+    }
+
+    /**
+     * Encode a physics state into a new array.
+     *
+     * @param state The state to encode
+     * @return The encoded state
+     */
+    public byte[] encode(PhysicsStateData state) {
+        byte[] bytes = new byte[sizeOf(state)];
+        write(ByteBuffer.wrap(bytes), state);
+        return bytes;
+    }
+
+    /**
+     * Decode a physics state.
+     *
+     * @param buffer The buffer to read from
+     * @return The decoded state
+     */
+    public PhysicsStateData read(ByteBuffer buffer) {
+        long header = readVarLong(buffer);
+        long id = header >>> 1;
+        long packed = 0;
+        for (int i = 0; i < positionBytes; i++) {
+            packed |= (buffer.get() & 0xFFL) << (i * 8);
+        }
+        Vector3f pos = new Vector3f(
+                dequantize(packed, min.x),
+                dequantize(packed >>> positionBits, min.y),
+                dequantize(packed >>> (positionBits * 2), min.z));
+        Quaternion rot = unpackRotation(buffer.getInt(), new Quaternion());
+        PhysicsStateData state = new PhysicsStateData(id, pos, rot);
+        if ((header & 1) != 0) {
+            state.setLinearVelocity(readVelocity(buffer, PhysicsStateData.VELOCITY_SCALE));
+            state.setAngularVelocity(readVelocity(buffer, PhysicsStateData.ANGULAR_VELOCITY_SCALE));
+        }
+        return state;
+    }
+
+    /**
+     * Round a state to the values a client will decode.
+     *
+     * @param pos      The location
+     * @param rot      The rotation
+     * @param storePos Receives the decoded location
+     * @param storeRot Receives the decoded rotation
+     */
+    public void round(Vector3f pos, Quaternion rot, Vector3f storePos, Quaternion storeRot) {
+        storePos.set(dequantize(quantize(pos.x, min.x), min.x),
+                dequantize(quantize(pos.y, min.y), min.y),
+                dequantize(quantize(pos.z, min.z), min.z));
+        unpackRotation(packRotation(rot), storeRot);
+    }
+
+    /**
+     * @param state The state to be encoded
+     * @return The number of bytes the state will be encoded into.
+     */
+    public int sizeOf(PhysicsStateData state) {
+        boolean velocity = state.hasVelocity();
+        return varLongSize((state.getId() << 1) | (velocity ? 1 : 0)) + positionBytes + 4 + (velocity ? 12 : 0);
+    }
+
+    private static void writeVelocity(ByteBuffer buffer, Vector3f v, float scale) {
+        buffer.putShort(PhysicsStateData.quantizeVelocity(v.x, scale));
+        buffer.putShort(PhysicsStateData.quantizeVelocity(v.y, scale));
+        buffer.putShort(PhysicsStateData.quantizeVelocity(v.z, scale));
+    }
+
+    private static Vector3f readVelocity(ByteBuffer buffer, float scale) {
+        float x = buffer.getShort() / scale;
+        float y = buffer.getShort() / scale;
+        float z = buffer.getShort() / scale;
+        return new Vector3f(x, y, z);
+    }
+
+    private long quantize(float value, float origin) {
+        long q = Math.round((value - origin) / precision);
+        return q < 0 ? 0 : (q > positionMax ? positionMax : q);
+    }
+
+    private float dequantize(long packed, float origin) {
+        return origin + (packed & positionMax) * precision;
+    }
+
+    private static int packRotation(Quaternion rot) {
+        float[] c = {rot.getX(), rot.getY(), rot.getZ(), rot.getW()};
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(c[i]) > Math.abs(c[largest])) {
+                largest = i;
+            }
+        }
+        //q and -q are the same rotation, so the largest component is always sent as positive
+        float sign = c[largest] < 0 ? -1f : 1f;
+        int packed = largest;
+        int shift = 2;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                float normalized = (c[i] * sign + ROTATION_RANGE) / (2f * ROTATION_RANGE);
+                int q = Math.round(normalized * ROTATION_MAX);
+                q = q < 0 ? 0 : (q > ROTATION_MAX ? ROTATION_MAX : q);
+                packed |= q << shift;
+                shift += ROTATION_BITS;
+            }
+        }
+        return packed;
+    }
+
+    private static Quaternion unpackRotation(int packed, Quaternion store) {
+        int largest = packed & 3;
+        float[] c = new float[4];
+        int shift = 2;
+        float sum = 0;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                int q = (packed >>> shift) & ROTATION_MAX;
+                c[i] = (q / (float) ROTATION_MAX) * (2f * ROTATION_RANGE) - ROTATION_RANGE;
+                sum += c[i] * c[i];
+                shift += ROTATION_BITS;
+            }
+        }
+        c[largest] = (float) Math.sqrt(Math.max(0f, 1f - sum));
+        return store.set(c[0], c[1], c[2], c[3]);
+    }
+
+    static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -6,18 +6,45 @@ import com.jme3.network.serializing.Serializable;
 
 @Serializable
 public class PhysicsStateData {
+    /**
+     * Approximate number of bytes a state without velocity takes when written by the reflective serializer
+     */
+    public static final int ESTIMATED_SIZE = 42;
+    /**
+     * Approximate number of additional bytes the velocities take when written by the reflective serializer
+     */
+    public static final int ESTIMATED_VELOCITY_SIZE = 24;
+    /**
+     * Linear velocities are quantized to 1/100 of a world unit per second in compact encodings
+     */
+    public static final float VELOCITY_SCALE = 100f;
+    /**
+     * Angular velocities are quantized to 1/1000 of a radian per second in compact encodings
+     */
+    public static final float ANGULAR_VELOCITY_SCALE = 1000f;
+
     private Vector3f location;
     private Quaternion rotation;
-    private long id;
+    private int id;
+    private Vector3f linearVelocity;
+    private Vector3f angularVelocity;
+    //Encoding cache, shared by every client the state is sent to.
+    //Sender threads encode in parallel, so the codec and bytes are published together through one volatile field.
+    private transient volatile Encoding encoding;
 
     public PhysicsStateData() {
 
     }
 
-    public PhysicsStateData(Long id, Vector3f pos, Quaternion rot) {
+    /**
+     * @param id  The network id of the object
+     * @param pos The location
+     * @param rot The rotation
+     */
+    public PhysicsStateData(long id, Vector3f pos, Quaternion rot) {
         location = pos;
         rotation = rot;
-        this.id = id;
+        this.id = (int) id;
     }
 
     public Vector3f getLocation() {
@@ -36,11 +63,70 @@ public class PhysicsStateData {
         this.rotation = rotation;
     }
 
-    public Long getId() {
+    /**
+     * @return The network id of the object
+     */
+    public long getId() {
         return id;
     }
 
-    public void setId(Long id) {
-        this.id = id;
+    public void setId(long id) {
+        this.id = (int) id;
+    }
+
+    /**
+     * @return The linear velocity in physics space, or null if velocity is not synced.
+     */
+    public Vector3f getLinearVelocity() {
+        return linearVelocity;
+    }
+
+    public void setLinearVelocity(Vector3f linearVelocity) {
+        this.linearVelocity = linearVelocity;
+    }
+
+    /**
+     * @return The angular velocity in physics space, or null if velocity is not synced.
+     */
+    public Vector3f getAngularVelocity() {
+        return angularVelocity;
+    }
+
+    public void setAngularVelocity(Vector3f angularVelocity) {
+        this.angularVelocity = angularVelocity;
+    }
+
+    /**
+     * @return If the state carries both linear and angular velocity.
+     */
+    public boolean hasVelocity() {
+        return linearVelocity != null && angularVelocity != null;
+    }
+
+    /**
+     * Quantize a velocity component to a short, clamping values outside of the range.
+     */
+    static short quantizeVelocity(float value, float scale) {
+        int q = Math.round(value * scale);
+        return (short) (q < Short.MIN_VALUE ? Short.MIN_VALUE : (q > Short.MAX_VALUE ? Short.MAX_VALUE : q));
+    }
+
+    byte[] getEncoded(Object codec) {
+        Encoding encoding = this.encoding;
+        return encoding != null && encoding.codec == codec ? encoding.bytes : null;
+    }
+
+    void setEncoded(Object codec, byte[] encoded) {
+        this.encoding = new Encoding(codec, encoded);
+    }
+
+    private static final class Encoding {
+        final Object codec;
+        final byte[] bytes;
+
+        Encoding(Object codec, byte[] bytes) {
+            this.codec = codec;
+            this.bytes = bytes;
+        }
     }
 }
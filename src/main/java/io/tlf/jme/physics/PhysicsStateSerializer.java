@@ -0,0 +1,44 @@
+package io.tlf.jme.physics;
+
+import com.jme3.network.serializing.Serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer writing PhysicsStateData through a PhysicsStateCodec instead of reflection.
+ */
+public class PhysicsStateSerializer extends Serializer {
+
+    private final PhysicsStateCodec codec;
+
+    /**
+     * Create a serializer using the default codec.
+     * This is used by clients when the server sends its serializer registrations.
+     */
+    public PhysicsStateSerializer() {
+        this(PhysicsStateCodec.getDefault());
+    }
+
+    public PhysicsStateSerializer(PhysicsStateCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T readObject(ByteBuffer data, Class<T> c) throws IOException {
+        return (T) codec.read(data);
+    }
+
+    @Override
+    public void writeObject(ByteBuffer buffer, Object object) throws IOException {
+        PhysicsStateData state = (PhysicsStateData) object;
+        //States are shared by all clients in a sync interval, so they are only encoded once
+        byte[] encoded = state.getEncoded(codec);
+        if (encoded == null) {
+            encoded = codec.encode(state);
+            state.setEncoded(codec, encoded);
+        }
+        buffer.put(encoded);
+    }
+}
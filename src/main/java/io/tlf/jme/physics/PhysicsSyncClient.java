@@ -6,24 +6,25 @@ import com.jme3.app.state.BaseAppState;
 import com.jme3.bullet.control.PhysicsControl;
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.network.Client;
 import com.jme3.network.Message;
 import com.jme3.network.MessageListener;
 import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import io.tlf.jme.physics.msg.*;
 
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PhysicsSyncClient extends BaseAppState implements MessageListener<Client> {
 
     private SimpleApplication app;
-    private HashMap<Long, Long> timestamps = new HashMap<>();
-    private long counter = 0;
+    private StateTimestamps timestamps = new StateTimestamps();
     private Object lock = new Object();
     private boolean loaded = false;
     //Interpolation Values
@@ -31,16 +32,36 @@ public class PhysicsSyncClient extends BaseAppState implements MessageListener<C
     private float interpMaxRot = 90f; //Degrees
     private long interpMaxDelay = 100; //milliseconds
     private boolean interp = true;
-    private HashMap<Long, InterpData> interpData = new HashMap<>();
-    private HashMap<Long, String> crossRefList = new HashMap<>();
+    private long extrapolationLimit = 1500; //milliseconds
+    private InterpolationTable interpData = new InterpolationTable();
+    //Jitter buffer
+    private boolean jitterBuffer = true;
+    private long playoutDelay = 100; //milliseconds
+    private boolean adaptivePlayout = true;
+    private PlayoutClock clock = new PlayoutClock();
+    private SnapshotBufferTable buffers = new SnapshotBufferTable();
+    private Vector3f samplePos = new Vector3f();
+    private Quaternion sampleRot = new Quaternion();
+    private SpatialLookup lookup;
+    private NameTable names = new NameTable(); //Only used by the thread receiving reliable messages
+    //Newest received state of each object, applied once per frame
+    private StateMailbox mailbox = new StateMailbox();
+    private StateMailbox.Consumer applier = this::applyState;
+    //Delta compression
+    private ConcurrentHashMap<Long, DeltaHistory> deltaHistory = new ConcurrentHashMap<>();
+    private DeltaAcks acks = new DeltaAcks();
+    private volatile Client server;
     //Debug vars
     private Node debugNode = new Node("physics-sync-debug");
+    private HashMap<Integer, Mesh> debugMeshes = new HashMap<>(); //Debug meshes by shape, only used on the render thread
+    private Material debugMat;
     private boolean debug = false;
     private boolean debugUpdateMessage = false;
 
     @Override
     protected void initialize(Application app) {
         this.app = (SimpleApplication) app;
+        this.lookup = new SpatialLookup(this.app.getRootNode());
     }
 
     @Override
@@ -50,8 +71,6 @@ public class PhysicsSyncClient extends BaseAppState implements MessageListener<C
 
     @Override
     public void update(float tpf) {
-        counter += tpf;
-
         if (debug) {
             if (!this.app.getRootNode().hasChild(debugNode)) {
                 this.app.getRootNode().attachChild(debugNode);
@@ -63,20 +82,38 @@ public class PhysicsSyncClient extends BaseAppState implements MessageListener<C
         }
 
         synchronized (lock) { //Prevent network message from modifying update state info during processing the info
-            if (counter > 60000) { //We do not need to check this very often, mostly just for cleanup so our hashmap does not get too large.
-                counter = 0;
-                long current = System.currentTimeMillis();
-                for (Long key : Collections.unmodifiableCollection(timestamps.keySet())) {
-                    if (timestamps.get(key) + 60000 < current) { //We have not received updates for over a minute.
-                        timestamps.remove(key); //Remove the timestamp entry.
+            mailbox.drain(applier);
+
+            //Acknowledge the snapshot parts received since the last frame
+            PhysicsAckMessage ack = acks.poll();
+            if (ack != null && server != null && server.isConnected()) {
+                server.send(ack);
+            }
+
+            if (interp && jitterBuffer && clock.isInitialized()) {
+                long renderTime = clock.serverTime(System.currentTimeMillis()) - getEffectivePlayoutDelay();
+                for (int i = 0; i < buffers.size(); i++) {
+                    SnapshotBuffer buffer = buffers.get(i);
+                    Spatial obj = buffer.getSpatial();
+                    if (obj != null && buffer.sample(renderTime, extrapolationLimit, samplePos, sampleRot)) {
+                        obj.setLocalTranslation(samplePos);
+                        obj.setLocalRotation(sampleRot);
+                        updateDebugGeometry(obj, buffers.getId(i));
                     }
                 }
+            } else if (!jitterBuffer && buffers.size() > 0) {
+                buffers.clear();
             }
-
             if (interp) {
-                for (InterpData data : Collections.unmodifiableCollection(interpData.values())) {
-                    if (data.update(tpf)) {
-                        interpData.remove(data);
+                float maxAngle = interpMaxRot * FastMath.DEG_TO_RAD;
+                //Walk backwards, removing a record moves the last record into its place
+                for (int i = interpData.size() - 1; i >= 0; i--) {
+                    Spatial obj = interpData.getSpatial(i);
+                    long id = interpData.getId(i);
+                    boolean complete = interpData.update(i, tpf, interpMaxDelay, interpMaxDistance, maxAngle, extrapolationLimit);
+                    updateDebugGeometry(obj, id);
+                    if (complete) {
+                        interpData.removeAt(i);
                     }
                 }
             }
@@ -101,53 +138,66 @@ public class PhysicsSyncClient extends BaseAppState implements MessageListener<C
 
         //Check Message Type
         if (m instanceof PhysicsSyncMessage) { //Sync Physics
-            synchronized (lock) {
-                app.enqueue(() -> {
-                    for (PhysicsStateData state : ((PhysicsSyncMessage) m).getPhysicsData()) {
-                        long lastUpdate = timestamps.containsKey(state.getId()) ? timestamps.get(state.getId()) : -1;
-                        if (lastUpdate > ((PhysicsSyncMessage) m).getTimestamp()) {
-                            continue; //This is an old message
-                        } else {
-                            timestamps.put(state.getId(), ((PhysicsSyncMessage) m).getTimestamp());
-                        }
-                        Spatial obj = app.getRootNode().getChild(crossRefList.get((state.getId())));
-                        if (obj == null) {
-                            continue; //If we cannot find the spatial, skip it
-                        }
-                        PhysicsControl control = obj.getControl(PhysicsControl.class);
-                        long updateDelay = ((PhysicsSyncMessage) m).getTimestamp() - lastUpdate;
-
-                        if (control == null) { //Client is not performing physics on the object
-                            //If interpolation is enabled, and the last update we got was recent enough
-                            //Also checking distanced moved and amount rotated
-                            if (interp) {
-                                InterpData interpObj = new InterpData();
-                                interpObj.delta = (float) updateDelay;
-                                interpObj.current = 0f;
-                                interpObj.obj = obj;
-                                interpObj.targetPos = state.getLocation();
-                                interpObj.targetRot = state.getRotation();
-                                interpObj.startPos = obj.getLocalTranslation();
-                                interpObj.startRot = obj.getLocalRotation();
-                                interpObj.id = state.getId();
-                                interpData.put(state.getId(), interpObj);
-                            }
-                        } else {
-                            //The client is performing physics on the object. We will ignore it.
-                        }
+            PhysicsSyncMessage msg = (PhysicsSyncMessage) m;
+            long arrival = System.currentTimeMillis();
+            server = source;
+            clock.sample(msg.getTimestamp(), arrival);
+            //Delta history is kept here, every snapshot must be recorded even if its states are coalesced
+            if (msg.getPhysicsData() != null) {
+                if (msg.getSnapshot() > 0) {
+                    for (PhysicsStateData state : msg.getPhysicsData()) {
+                        deltaHistory.computeIfAbsent(state.getId(), k -> new DeltaHistory()).record(msg.getSnapshot(), state.getLocation(), state.getRotation());
                     }
-                });
+                }
+                mailbox.post(msg.getPhysicsData(), msg.getPhysicsData().length, msg.getTimestamp());
+            }
+            boolean decoded = true;
+            if (msg.getDeltaData() != null) {
+                PhysicsStateData[] states = new PhysicsStateData[msg.getDeltaData().length];
+                int count = 0;
+                for (PhysicsDeltaData delta : msg.getDeltaData()) {
+                    DeltaHistory history = deltaHistory.get(delta.getId());
+                    Vector3f pos = new Vector3f();
+                    Quaternion rot = new Quaternion();
+                    if (history == null || !history.get(msg.getSnapshot() - delta.getBaseline(), pos, rot)) {
+                        decoded = false; //We do not have the baseline, the part is not acknowledged so it is not used as one
+                        continue;
+                    }
+                    delta.apply(pos, rot, pos, rot);
+                    history.record(msg.getSnapshot(), pos, rot);
+                    PhysicsStateData state = new PhysicsStateData(delta.getId(), pos, rot);
+                    Vector3f linear = new Vector3f();
+                    Vector3f angular = new Vector3f();
+                    if (delta.getVelocity(linear, angular)) {
+                        state.setLinearVelocity(linear);
+                        state.setAngularVelocity(angular);
+                    }
+                    states[count++] = state;
+                }
+                mailbox.post(states, count, msg.getTimestamp());
+            }
+            if (decoded) {
+                acks.receive(msg.getSnapshot(), msg.getPart()); //Acknowledged on the next frame
             }
         } else if (m instanceof PhysicsSyncObjMessage) {
-            for (int i = 0; i < ((PhysicsSyncObjMessage) m).getName().length; i++) {
+            String[] decoded = names.decode((PhysicsSyncObjMessage) m);
+            for (int i = 0; i < decoded.length; i++) {
                 boolean rem = ((PhysicsSyncObjMessage) m).getRemove()[i];
-                String name = ((PhysicsSyncObjMessage) m).getName()[i];
+                String name = decoded[i];
                 long id = ((PhysicsSyncObjMessage) m).getId()[i];
 
                 if (rem) {
-                    crossRefList.remove(id);
+                    deltaHistory.remove(id);
+                    mailbox.remove(id);
+                    app.enqueue(() -> {
+                        lookup.unregister(id);
+                        timestamps.remove(id);
+                        buffers.remove(id);
+                        interpData.remove(id);
+                        debugNode.detachChildNamed(Long.toString(id));
+                    });
                 } else {
-                    crossRefList.put(id, name);
+                    app.enqueue(() -> lookup.register(id, name));
                 }
             }
         } else if (m instanceof PhysicsEchoMessage) { //Echo
@@ -161,63 +211,148 @@ public class PhysicsSyncClient extends BaseAppState implements MessageListener<C
         } else if (m instanceof PhysicsDebugMessage) {
             DebugData dd = ((PhysicsDebugMessage) m).getData();
             app.enqueue(() -> {
+                //Meshes are only sent the first time a shape is used, and shared by every object with the shape
+                if (dd.mesh != null) {
+                    debugMeshes.put(dd.shape, dd.mesh);
+                }
+                Mesh mesh = debugMeshes.get(dd.shape);
+                if (mesh == null) {
+                    return;
+                }
                 Geometry geo = (Geometry) debugNode.getChild(Long.toString(dd.id));
                 if (geo == null) {
                     geo = new Geometry(Long.toString(dd.id));
                     debugNode.attachChild(geo);
                 }
-                geo.setMesh(dd.mesh);
-                Material debugMat = new Material(app.getAssetManager(), "Common/MatDefs/Misc/Unshaded.j3md");
-                debugMat.setColor("Color", ColorRGBA.Blue);
-                debugMat.getAdditionalRenderState().setWireframe(true);
+                geo.setMesh(mesh);
+                if (debugMat == null) {
+                    debugMat = new Material(app.getAssetManager(), "Common/MatDefs/Misc/Unshaded.j3md");
+                    debugMat.setColor("Color", ColorRGBA.Blue);
+                    debugMat.getAdditionalRenderState().setWireframe(true);
+                }
                 geo.setMaterial(debugMat);
             });
         }
     }
 
+    private void applyState(PhysicsStateData state, long timestamp) {
+        boolean buffered = interp && jitterBuffer;
+        long lastUpdate = timestamps.get(state.getId());
+        if (lastUpdate > timestamp) {
+            if (!buffered) {
+                return; //This is an old message
+            } //The jitter buffer places late messages in order
+        } else {
+            timestamps.set(state.getId(), timestamp);
+        }
+        Spatial obj = lookup.get(state.getId(), System.currentTimeMillis());
+        if (obj == null) {
+            return; //The object is not registered or not in the scene yet, skip it
+        }
+        PhysicsControl control = obj.getControl(PhysicsControl.class);
+        long updateDelay = timestamp - lastUpdate;
+
+        if (control == null) { //Client is not performing physics on the object
+            if (buffered) {
+                //Rendered from the buffer in update(), a playout delay behind the server
+                SnapshotBuffer buffer = buffers.add(state.getId());
+                buffer.setSpatial(obj);
+                buffer.add(timestamp, state);
+                interpData.remove(state.getId());
+                return;
+            }
+            //If interpolation is enabled, and the last update we got was recent enough
+            //Also checking distanced moved and amount rotated
+            if (interp) {
+                interpData.set(state.getId(), obj, state, (float) updateDelay);
+            }
+        } else {
+            //The client is performing physics on the object. We will ignore it.
+        }
+    }
+
+    /**
+     * Set how long an object is extrapolated by its velocity after its last update.
+     * Only used when the server syncs velocities.
+     *
+     * @param milliseconds The extrapolation limit
+     */
+    public void setExtrapolationLimit(long milliseconds) {
+        this.extrapolationLimit = milliseconds;
+    }
+
+    public long getExtrapolationLimit() {
+        return extrapolationLimit;
+    }
+
+    /**
+     * Buffer received states and render objects between the two states that bracket a playout delay behind the server,
+     * instead of interpolating from the current pose toward each state as it arrives.
+     * Jitter and out of order delivery are absorbed by the buffer, at the cost of the playout delay.
+     * Only used when interpolation is enabled.
+     *
+     * @param enabled If the jitter buffer is used.
+     */
+    public void setJitterBuffer(boolean enabled) {
+        this.jitterBuffer = enabled;
+    }
+
+    public boolean isJitterBuffer() {
+        return jitterBuffer;
+    }
+
+    /**
+     * Set how far behind the estimated server time objects are rendered.
+     * This should be at least the update interval of the server, so two states bracket the playout time.
+     * With adaptive playout, four times the measured jitter is added to the delay.
+     *
+     * @param milliseconds The playout delay
+     */
+    public void setPlayoutDelay(long milliseconds) {
+        this.playoutDelay = milliseconds;
+    }
+
+    public long getPlayoutDelay() {
+        return playoutDelay;
+    }
+
+    /**
+     * @param enabled If the playout delay grows with the measured jitter.
+     */
+    public void setAdaptivePlayout(boolean enabled) {
+        this.adaptivePlayout = enabled;
+    }
+
+    public boolean isAdaptivePlayout() {
+        return adaptivePlayout;
+    }
+
+    /**
+     * @return The playout delay currently used, including the jitter allowance.
+     */
+    public long getEffectivePlayoutDelay() {
+        return adaptivePlayout ? playoutDelay + Math.round(clock.getJitter() * 4f) : playoutDelay;
+    }
+
+    /**
+     * @return The jitter of received sync messages in milliseconds.
+     */
+    public float getJitter() {
+        return clock.getJitter();
+    }
+
     public void setPhysicsDebugging(boolean enabled) {
         this.debug = enabled;
         this.debugUpdateMessage = true;
     }
 
-    private class InterpData {
-        public float delta;
-        public float current;
-        public Vector3f targetPos;
-        public Vector3f startPos;
-        public Quaternion targetRot;
-        public Quaternion startRot;
-        public Spatial obj;
-        public long id;
-
-        public boolean update(float tpf) {
-            boolean interpComplete = false;
-            float updateDistance = obj.getLocalTranslation().distance(targetPos);
-            float updateAngle = (float) (Math.acos(obj.getLocalRotation().dot(targetRot)) * 2.0);
-            if (delta < interpMaxDelay && updateDistance < interpMaxDistance && updateAngle < interpMaxRot) {
-                current += tpf * 1000;
-                float percentInterp = current / delta;
-                if (percentInterp >= 1f) {
-                    obj.setLocalTranslation(targetPos);
-                    obj.setLocalRotation(targetRot);
-                    interpComplete = true;
-                } else {
-                    obj.setLocalTranslation(startPos.interpolateLocal(targetPos, percentInterp));
-                    obj.setLocalRotation(new Quaternion().slerp(startRot, targetRot, percentInterp));
-                }
-            } else {
-                obj.setLocalTranslation(targetPos);
-                obj.setLocalRotation(targetRot);
-                interpComplete = true;
-            }
-            if (debug) {
-                Spatial debugGeo = debugNode.getChild(Long.toString(id));
-                if (debugGeo != null) {
-                    debugGeo.setLocalRotation(obj.getLocalRotation());
-                    debugGeo.setLocalTranslation(obj.getLocalTranslation());
-                }
+    private void updateDebugGeometry(Spatial obj, long id) {
+        if (debug) {
+            Spatial debugGeo = debugNode.getChild(Long.toString(id));
+            if (debugGeo != null) {
+                debugGeo.setLocalRotation(obj.getLocalRotation());
+                debugGeo.setLocalTranslation(obj.getLocalTranslation());
             }
-            return interpComplete;
         }
     }
 }
@@ -0,0 +1,614 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import io.tlf.jme.physics.msg.PhysicsDebugMessage;
+import io.tlf.jme.physics.msg.PhysicsSyncMessage;
+import io.tlf.jme.physics.msg.PhysicsSyncObjMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sender stage of the sync pipeline.
+ * The physics thread hands over snapshots, and the sender performs interest filtering, encoding and sending
+ * on its own thread so a slow client or a large fan-out does not stretch the physics step.
+ * With a parallelism above 1, clients are partitioned across a fork/join pool.
+ */
+public class PhysicsSyncSender {
+
+    private final PhysicsSyncServer server;
+    private final ConcurrentHashMap<HostedConnection, ClientChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger phases = new AtomicInteger();
+    private volatile ExecutorService executor;
+    private volatile int parallelism = 1;
+    private volatile int queueSize = 2;
+    private volatile int bandwidth = 0;
+    private volatile int maxMessageSize = MessageSizes.DEFAULT_MAX_MESSAGE_SIZE;
+    private volatile int joinBudget = 16384;
+
+    public PhysicsSyncSender(PhysicsSyncServer server) {
+        this.server = server;
+        this.executor = createExecutor(parallelism);
+    }
+
+    /**
+     * Set the number of threads used to build and send client updates.
+     * A parallelism of 1 uses a single sender thread, a parallelism of 0 uses one thread per available processor.
+     * Batching for a client does not depend on the parallelism, so every setting produces the same messages.
+     *
+     * @param parallelism The number of threads
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (parallelism == this.parallelism) {
+            return;
+        }
+        ExecutorService old = executor;
+        this.parallelism = parallelism;
+        this.executor = createExecutor(parallelism);
+        old.shutdown(); //Let work already queued on the old executor finish
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of snapshots that can be queued for a client before the oldest is dropped.
+     *
+     * @param queueSize The number of snapshots
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set the bytes of physics states that can be sent to each client per second.
+     * Clients with their own budget set on their channel are not affected.
+     *
+     * @param bytesPerSecond The budget, or 0 for no limit
+     */
+    public void setBandwidth(int bytesPerSecond) {
+        this.bandwidth = Math.max(bytesPerSecond, 0);
+    }
+
+    public int getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Set the size in bytes that sync messages are packed up to.
+     * A message always holds at least one state, even if the state alone is larger.
+     *
+     * @param bytes The maximum message size
+     */
+    public void setMaxMessageSize(int bytes) {
+        this.maxMessageSize = bytes;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Set the bytes of registrations streamed to a joining client per sync interval.
+     *
+     * @param bytes The budget
+     */
+    public void setJoinBudget(int bytes) {
+        this.joinBudget = Math.max(bytes, 1);
+    }
+
+    public int getJoinBudget() {
+        return joinBudget;
+    }
+
+    /**
+     * Start streaming registrations to a client.
+     * The registrations are sent in chunks with the following snapshots, and states are sent once the stream is complete.
+     *
+     * @param c    The client
+     * @param view The objects to register with the client
+     */
+    public void join(HostedConnection c, RegistryView view) {
+        ClientChannel channel = channels.get(c);
+        if (channel != null) {
+            channel.setJoin(new JoinStream(view));
+        }
+    }
+
+    /**
+     * Get the channel of a client, creating it if it does not exist.
+     * Each new channel gets the next phase, so the phases of clients are spread evenly.
+     *
+     * @param c The client
+     * @return The channel of the client
+     */
+    public ClientChannel add(HostedConnection c) {
+        return channels.computeIfAbsent(c, k -> new ClientChannel(k, phases.getAndIncrement() & Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param c The client
+     * @return The channel of the client, or null if the client does not have a channel.
+     */
+    public ClientChannel get(HostedConnection c) {
+        return channels.get(c);
+    }
+
+    public void remove(HostedConnection c) {
+        channels.remove(c);
+    }
+
+    public Collection<ClientChannel> channels() {
+        return channels.values();
+    }
+
+    /**
+     * Queue a message for a client.
+     *
+     * @param c The client
+     * @param m The message
+     */
+    public void send(HostedConnection c, Message m) {
+        ClientChannel channel = channels.get(c);
+        if (channel != null && channel.offer(m)) {
+            schedule(channel);
+        }
+    }
+
+    /**
+     * Queue a message for all clients.
+     *
+     * @param m The message
+     */
+    public void broadcast(Message m) {
+        for (ClientChannel channel : channels.values()) {
+            if (channel.offer(m)) {
+                schedule(channel);
+            }
+        }
+    }
+
+    /**
+     * Queue a snapshot for the clients of a phase that are in the snapshot.
+     * A client is in phase when its phase modulo the number of phases equals the phase.
+     *
+     * @param snapshot The snapshot
+     * @param phases   The number of phases
+     * @param phase    The phase to queue the snapshot for
+     */
+    public void submit(SyncSnapshot snapshot, int phases, int phase) {
+        ClientChannel[] ready = new ClientChannel[channels.size()];
+        int count = 0;
+        for (ClientChannel channel : channels.values()) {
+            if (channel.getPhase() % phases == phase && snapshot.getClientPosition(channel.getConnection()) != null
+                    && channel.offer(snapshot, queueSize)) {
+                if (count == ready.length) {
+                    ready = Arrays.copyOf(ready, count * 2 + 1);
+                }
+                ready[count++] = channel;
+            }
+        }
+        if (count > 0) {
+            ExecutorService executor = this.executor;
+            if (executor instanceof ForkJoinPool) {
+                ((ForkJoinPool) executor).execute(new DrainTask(ready, 0, count, Math.max(1, count / (parallelism * 4))));
+            } else {
+                ClientChannel[] drain = ready;
+                int len = count;
+                executor.execute(() -> {
+                    for (int i = 0; i < len; i++) {
+                        drain(drain[i]);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Queue debug messages for the debugging clients.
+     * An object is only sent to a client when the client has not received it with its current shape,
+     * and the mesh of a shape is only sent to a client once. Objects not registered with a client are skipped.
+     *
+     * @param ids     The object ids
+     * @param shapes  The debug shapes of the objects
+     * @param count   The number of objects
+     * @param clients The clients that have debugging enabled
+     */
+    public void submitDebug(long[] ids, DebugShape[] shapes, int count, Collection<HostedConnection> clients) {
+        executor.execute(() -> {
+            for (HostedConnection c : clients) {
+                ClientChannel channel = channels.get(c);
+                if (channel == null) {
+                    continue;
+                }
+                DebugSubscription debug = channel.getDebug();
+                VisibilitySet visible = channel.getVisibility();
+                //A mesh must be queued before any object using it, even when intervals are built in parallel
+                synchronized (debug) {
+                    for (int i = 0; i < count; i++) {
+                        int shape = shapes[i].getId();
+                        if (visible.contains(ids[i]) && debug.needsObject(ids[i], shape)) {
+                            PhysicsDebugMessage debugMessage = new PhysicsDebugMessage(ids[i], shape, debug.needsMesh(shape) ? shapes[i].getData() : null);
+                            send(c, debugMessage);
+                            server.getMetrics().recordDebug(1, MessageSizes.message(debugMessage));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for everything queued so far to be sent.
+     *
+     * @param milliseconds The longest time to wait
+     * @return True if the sender finished the queued work, false if the wait timed out.
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public boolean awaitIdle(long milliseconds) throws InterruptedException {
+        ExecutorService executor = this.executor;
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).awaitQuiescence(milliseconds, TimeUnit.MILLISECONDS);
+        }
+        //The single sender thread runs tasks in order, so every earlier task is done when this one is
+        try {
+            executor.submit(() -> {
+            }).get(milliseconds, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Stop the sender, queued items that have not been sent are discarded.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        channels.clear();
+    }
+
+    private static ExecutorService createExecutor(int parallelism) {
+        if (parallelism > 1) {
+            return new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("physics-sync-sender-" + t.getPoolIndex());
+                return t;
+            }, null, false);
+        }
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "physics-sync-sender");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void schedule(ClientChannel channel) {
+        executor.execute(() -> drain(channel));
+    }
+
+    private void drain(ClientChannel channel) {
+        Object next;
+        while ((next = channel.poll()) != null) {
+            try {
+                if (next instanceof SyncSnapshot) {
+                    try {
+                        sendStates(channel, (SyncSnapshot) next);
+                    } finally {
+                        ((SyncSnapshot) next).release();
+                    }
+                } else {
+                    if (next instanceof PhysicsSyncObjMessage) {
+                        forgetRemoved(channel, (PhysicsSyncObjMessage) next);
+                        next = channel.getNames().encode((PhysicsSyncObjMessage) next);
+                    }
+                    channel.getConnection().send((Message) next);
+                    server.getMetrics().recordMessage(channel, MessageSizes.message((Message) next));
+                }
+            } catch (Exception ex) {
+                //This occurs when the client is no longer connected to the server.
+            }
+        }
+    }
+
+    private void sendStates(ClientChannel channel, SyncSnapshot snapshot) {
+        HostedConnection c = channel.getConnection();
+        Vector3f clientPos = snapshot.getClientPosition(c);
+        if (clientPos == null) {
+            return; //The client was added after the snapshot was taken
+        }
+        JoinStream join = channel.getJoin();
+        if (join != null) {
+            ArrayList<PhysicsSyncObjMessage> chunk = new ArrayList<>();
+            join.next(clientPos, joinBudget, maxMessageSize, chunk);
+            for (PhysicsSyncObjMessage objMessage : chunk) {
+                objMessage = channel.getNames().encode(objMessage);
+                c.send(objMessage);
+                server.getMetrics().recordMessage(channel, MessageSizes.message(objMessage));
+            }
+            if (!join.isComplete()) {
+                return; //States are sent once the client knows every object
+            }
+            channel.setJoin(null);
+        }
+        long buildStart = System.nanoTime();
+        //Find objects to sync, in snapshot order so batching does not depend on the index or thread
+        Indices visible = new Indices();
+        snapshot.visit(clientPos, visible::add);
+        int considered = visible.size;
+        Arrays.sort(visible.values, 0, visible.size);
+        SyncBands bands = server.getSyncBands();
+        if (bands != null && !clientPos.equals(Vector3f.NAN)) {
+            skipBanded(bands, snapshot, clientPos, visible, channel.getPhase());
+        }
+        DeadReckoning reckoning = channel.getDeadReckoning();
+        float distance = server.getDeadReckoningDistance();
+        if (distance > 0) {
+            skipPredicted(reckoning, snapshot, visible, distance, server.getDeadReckoningAngle());
+        } else {
+            reckoning.clear();
+        }
+        ArrayList<PhysicsStateData> data;
+        int budget = channel.getBandwidth() >= 0 ? channel.getBandwidth() : bandwidth;
+        if (budget > 0) {
+            data = prioritize(channel, snapshot, clientPos, visible, budget);
+        } else {
+            channel.getPriorities().clear();
+            data = new ArrayList<>(visible.size);
+            for (int i = 0; i < visible.size; i++) {
+                data.add(snapshot.getState(visible.values[i]));
+            }
+        }
+        channel.setLastSnapshot(snapshot.getTimestamp());
+        if (distance > 0) {
+            for (PhysicsStateData state : data) {
+                reckoning.record(state, snapshot.getTimestamp());
+            }
+        }
+
+        //Send updates
+        StatePacker packer = new StatePacker(channel, snapshot, server.isDeltaCompression() ? channel.getBaselines() : null);
+        for (PhysicsStateData state : data) {
+            packer.add(state);
+        }
+        packer.flush();
+        server.getMetrics().recordClient(System.nanoTime() - buildStart - packer.sendTime, packer.sendTime, considered, data.size());
+    }
+
+    /**
+     * Remove the objects whose distance band is not due in this interval from the visible objects.
+     * The final state of an object that stopped moving is only in one snapshot, so it is always kept.
+     */
+    private void skipBanded(SyncBands bands, SyncSnapshot snapshot, Vector3f clientPos, Indices visible, int phase) {
+        int kept = 0;
+        for (int n = 0; n < visible.size; n++) {
+            int i = visible.values[n];
+            if (snapshot.isStopped(i) || bands.isDue(snapshot.getDistance(i, clientPos), snapshot.getInterval(), phase, snapshot.getId(i))) {
+                visible.values[kept++] = i;
+            }
+        }
+        visible.size = kept;
+    }
+
+    /**
+     * Remove the objects the client can predict from the visible objects.
+     */
+    private void skipPredicted(DeadReckoning reckoning, SyncSnapshot snapshot, Indices visible, float distance, float angle) {
+        int kept = 0;
+        for (int n = 0; n < visible.size; n++) {
+            int i = visible.values[n];
+            if (snapshot.isStopped(i) || !reckoning.predicts(snapshot.getState(i), snapshot.getTimestamp(), distance, angle)) {
+                visible.values[kept++] = i;
+            }
+        }
+        visible.size = kept;
+    }
+
+    /**
+     * Accumulate priority for the visible objects, and select the objects that fit in the budget of the client.
+     */
+    private ArrayList<PhysicsStateData> prioritize(ClientChannel channel, SyncSnapshot snapshot, Vector3f clientPos, Indices visible, int budget) {
+        PriorityAccumulator priorities = channel.getPriorities();
+        long last = channel.getLastSnapshot();
+        long elapsed = last > 0 ? snapshot.getTimestamp() - last : server.getUpdateInterval();
+        float seconds = Math.max(elapsed, 1) / 1000f;
+        boolean everywhere = clientPos.equals(Vector3f.NAN);
+        for (int n = 0; n < visible.size; n++) {
+            int i = visible.values[n];
+            float distance = everywhere ? 0 : snapshot.getDistance(i, clientPos);
+            priorities.accumulate(snapshot.getState(i), distance, snapshot.getSpeed(i), snapshot.getSize(i), seconds);
+        }
+        int bytes = (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(budget * seconds));
+        return priorities.select(bytes, server.getCompactEncoding());
+    }
+
+    /**
+     * Forget removed objects, so a state waiting in the priority accumulator is not sent after the client has removed the object,
+     * and an object registered again with the same id is not predicted from the old object.
+     * The client drops the delta history of a removed object, so its baselines are forgotten too,
+     * and the first state after the object is registered again is sent in full.
+     * Snapshots queued before the removal were already sent, as the channel keeps messages and snapshots in order.
+     * Registration messages are never dropped, unlike snapshots.
+     */
+    private void forgetRemoved(ClientChannel channel, PhysicsSyncObjMessage msg) {
+        int[] ids = msg.getId();
+        boolean[] remove = msg.getRemove();
+        for (int i = 0; i < ids.length; i++) {
+            if (remove[i]) {
+                channel.getPriorities().remove(ids[i]);
+                channel.getDeadReckoning().remove(ids[i]);
+                channel.getBaselines().remove(ids[i]);
+                channel.getDebug().remove(ids[i]);
+                JoinStream join = channel.getJoin();
+                if (join != null) {
+                    join.remove(ids[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs states into sync messages, starting a new message when the next state would exceed the maximum message size.
+     * With delta compression the messages of a sync interval are the parts of one snapshot, and states are encoded
+     * as deltas against the baselines the client has acknowledged. States without a usable baseline are sent in full.
+     */
+    private class StatePacker {
+        private final ClientChannel channel;
+        private final long timestamp;
+        private final long interval;
+        private final long snapshot;
+        private final DeltaBaselines baselines;
+        private final PhysicsStateCodec codec = server.getCompactEncoding();
+        private final int maxSize = maxMessageSize;
+        private final Vector3f pos = new Vector3f();
+        private final Quaternion rot = new Quaternion();
+        private ArrayList<PhysicsStateData> full = new ArrayList<>();
+        private ArrayList<PhysicsDeltaData> deltas = new ArrayList<>();
+        private DeltaBaselines.Baseline base;
+        private int part = 0;
+        private int sequence = -1;
+        private int size = MessageSizes.SYNC_MESSAGE;
+        private long sendTime = 0;
+
+        StatePacker(ClientChannel channel, SyncSnapshot snapshot, DeltaBaselines baselines) {
+            this.channel = channel;
+            this.timestamp = snapshot.getTimestamp();
+            this.interval = snapshot.getInterval();
+            //Snapshot ids follow the sync intervals, so baseline ages are counted in intervals. 0 means no delta compression.
+            this.snapshot = snapshot.getInterval() + 1;
+            this.baselines = baselines;
+            if (baselines != null) {
+                baselines.begin(this.snapshot);
+            }
+        }
+
+        void add(PhysicsStateData state) {
+            PhysicsDeltaData delta = encode(state);
+            int entry = delta != null ? MessageSizes.delta(delta) : MessageSizes.state(state, codec);
+            int count = full.size() + deltas.size();
+            if (count > 0 && (size + entry > maxSize || count >= PhysicsSyncMessage.MAX_PACK)) {
+                flush();
+            }
+            size += entry;
+            if (delta != null) {
+                //Record the state as the client will reconstruct it, so quantization error does not accumulate
+                delta.apply(base.location, base.rotation, pos, rot);
+                baselines.record(state.getId(), part, pos, rot);
+                deltas.add(delta);
+            } else {
+                if (baselines != null) {
+                    if (codec != null) {
+                        //The compact codec rounds the state, the baseline must match what the client decodes
+                        codec.round(state.getLocation(), state.getRotation(), pos, rot);
+                        baselines.record(state.getId(), part, pos, rot);
+                    } else {
+                        baselines.record(state.getId(), part, state.getLocation(), state.getRotation());
+                    }
+                }
+                full.add(state);
+            }
+        }
+
+        void flush() {
+            if (full.size() + deltas.size() == 0) {
+                return;
+            }
+            PhysicsSyncMessage msg = new PhysicsSyncMessage();
+            msg.setPhysicsData(full.toArray(new PhysicsStateData[0]));
+            if (baselines != null) {
+                msg.setSnapshot(snapshot);
+                msg.setPart(part);
+                msg.setDeltaData(deltas.toArray(new PhysicsDeltaData[0]));
+            }
+            if (sequence < 0) {
+                sequence = channel.nextSequence(); //Only intervals with states take a sequence number
+            }
+            msg.setTimestamp(timestamp);
+            msg.setInterval(interval);
+            msg.setSequence(sequence);
+            long sendStart = System.nanoTime();
+            channel.getConnection().send(msg);
+            sendTime += System.nanoTime() - sendStart;
+            server.getMetrics().recordMessage(channel, size);
+            full.clear();
+            deltas.clear();
+            part++;
+            size = MessageSizes.SYNC_MESSAGE;
+        }
+
+        private PhysicsDeltaData encode(PhysicsStateData state) {
+            if (baselines == null) {
+                return null;
+            }
+            base = baselines.get(state.getId(), snapshot);
+            if (base == null) {
+                return null;
+            }
+            return PhysicsDeltaData.encode(state.getId(), (int) (snapshot - base.snapshot), base.location, base.rotation,
+                    state.getLocation(), state.getRotation(), state.getLinearVelocity(), state.getAngularVelocity());
+        }
+    }
+
+    /**
+     * Drains a range of client channels, splitting the range across the fork/join pool.
+     */
+    private class DrainTask extends RecursiveAction {
+        private final ClientChannel[] channels;
+        private final int start;
+        private final int end;
+        private final int threshold;
+
+        DrainTask(ClientChannel[] channels, int start, int end, int threshold) {
+            this.channels = channels;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                for (int i = start; i < end; i++) {
+                    drain(channels[i]);
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new DrainTask(channels, start, mid, threshold), new DrainTask(channels, mid, end, threshold));
+            }
+        }
+    }
+
+    private static class Indices {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
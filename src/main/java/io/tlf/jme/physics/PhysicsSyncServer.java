@@ -7,18 +7,17 @@ import com.jme3.bullet.PhysicsSpace;
 import com.jme3.bullet.PhysicsTickListener;
 import com.jme3.bullet.collision.PhysicsCollisionObject;
 import com.jme3.bullet.control.PhysicsControl;
-import com.jme3.bullet.util.DebugShapeFactory;
-import com.jme3.material.Material;
 import com.jme3.math.Vector3f;
 import com.jme3.network.HostedConnection;
 import com.jme3.network.Message;
 import com.jme3.network.MessageListener;
 import com.jme3.network.serializing.Serializer;
-import com.jme3.scene.Mesh;
 import com.jme3.scene.Spatial;
 import io.tlf.jme.physics.msg.*;
 
+import javax.management.JMException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 
 public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListener, MessageListener<HostedConnection> {
 
@@ -29,21 +28,43 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
     private volatile long updateInterval = 50; //in milliseconds
     private volatile long echoInterval = 100; //in milliseconds
     private volatile float syncDistance = 100f;
-    private HashMap<Long, Boolean> updateStates = new HashMap<>();
-    private HashMap<Long, Spatial> objects = new HashMap<>();
+    private volatile boolean deltaCompression = false;
+    private volatile PhysicsStateCodec codec = null;
+    private volatile boolean velocitySync = false;
+    private volatile float reckoningDistance = 0f;
+    private volatile float reckoningAngle = 0f;
+    private volatile SyncBands bands = null;
+    private volatile boolean staggeredSync = false;
+    private long interval = 0;
+    private long tick = 0;
+    private SyncSnapshot snapshot = null;
+    //Spatial indexes of released snapshots, reused by later snapshots
+    private final Queue<SpatialIndex> indexes = new ArrayBlockingQueue<>(16);
+    private long captureTick = -1;
+    private volatile int wakeSweepIntervals = 0;
+    private int sweepCursor = 0;
+    private long sweepTime = 0;
+    private ObjectRegistry registry = new ObjectRegistry();
     private HashMap<String, Long> objCrossRef = new HashMap<>();
-    private HashMap<Long, DebugData> objDebug = new HashMap<>();
     private HashMap<HostedConnection, Vector3f> clients = new HashMap<>();
     private HashMap<HostedConnection, Spatial> clientRelations = new HashMap<>();
     private HashMap<HostedConnection, LatencyData> clientLatency = new HashMap<>();
     private HashSet<HostedConnection> debugClients = new HashSet<>();
+    private LinkedHashSet<HostedConnection> joining = new LinkedHashSet<>();
+    private DebugShapeCache debugShapes = new DebugShapeCache();
+    private VisibilityTracker visibility = new VisibilityTracker();
     private LinkedList<Spatial> addQueue = new LinkedList<>();
     private LinkedList<Spatial> removeQueue = new LinkedList<>();
     private final Object lock = new Object();
     private BulletAppState physics;
+    private PhysicsSyncSender sender;
+    private SyncMetrics metrics;
+    private volatile String jmxName = "io.tlf.jme.physics:type=PhysicsSyncServer";
 
     public PhysicsSyncServer(BulletAppState physics) {
         this.physics = physics;
+        this.sender = new PhysicsSyncSender(this);
+        this.metrics = new SyncMetrics(sender);
     }
 
     /**
@@ -58,11 +79,10 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
                 PhysicsControl control = s.getControl(PhysicsControl.class);
                 physics.getPhysicsSpace().add(control);
                 if (control instanceof PhysicsCollisionObject) {
-                    updateStates.put(((PhysicsCollisionObject) control).getObjectId(), true);
-                    objects.put(((PhysicsCollisionObject) control).getObjectId(), s);
-                    objCrossRef.put(s.getName(), ((PhysicsCollisionObject) control).getObjectId());
+                    int slot = registry.add(((PhysicsCollisionObject) control).getObjectId(), s, (PhysicsCollisionObject) control);
+                    registry.activate(slot);
+                    objCrossRef.put(s.getName(), registry.getId(slot));
                 }
-                updateDebug(control);
                 addQueue.push(s);
             }
         }
@@ -79,13 +99,34 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
                 PhysicsControl control = s.getControl(PhysicsControl.class);
                 physics.getPhysicsSpace().remove(control);
             }
-            objDebug.remove(objCrossRef.get(s.getName()));
-            updateStates.remove(s.getName());
-            objects.remove(s.getName());
+            Long id = objCrossRef.get(s.getName());
+            if (id != null) {
+                registry.remove(id);
+            }
             removeQueue.push(s);
         }
     }
 
+    /**
+     * Mark a Spatial as moving, so its state will be synced from the next physics tick.
+     * Sleeping objects woken by a contact with an active object are found on each sync interval,
+     * objects moved directly, such as by applying an impulse or setting their location, must be marked
+     * unless the wake sweep is enabled.
+     *
+     * @param s The Spatial that moved
+     */
+    public void markDirty(Spatial s) {
+        synchronized (lock) {
+            Long id = objCrossRef.get(s.getName());
+            if (id != null) {
+                int slot = registry.slot(id);
+                if (slot != LongIntMap.MISSING) {
+                    registry.activate(slot);
+                }
+            }
+        }
+    }
+
     /**
      * Remove all Spatials from the physics sync engine and physics space.
      */
@@ -97,7 +138,8 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
 
     /**
      * Add Network Client to Physics Sync Engine.
-     * Once a client has been added, the physics sync engine will begin syncing physics states.
+     * Once a client has been added, the physics sync engine will stream the registered objects within range of the client,
+     * nearest first, over the following sync intervals. Physics states are synced once the client has every object in range.
      *
      * @param c The Client to add.
      */
@@ -105,35 +147,9 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
         synchronized (lock) {
             clients.put(c, Vector3f.NAN.clone());
             clientLatency.put(c, new LatencyData());
-            //Send object info
-            Stack<String> names = new Stack<>();
-            Stack<Long> ids = new Stack<>();
-            Stack<Boolean> remove = new Stack<>();
-
-            for (Long id : objects.keySet()) {
-                String name = objects.get(id).getName();
-                names.push(name);
-                ids.push(id);
-                remove.push(false);
-            }
-
-            while (names.size() > 0) {
-                int len = names.size() > PhysicsSyncObjMessage.MAX_PACK ? PhysicsSyncObjMessage.MAX_PACK : names.size();
-                String[] namesBatch = new String[len];
-                long[] idsBatch = new long[len];
-                boolean[] removeBatch = new boolean[len];
-                for (int i = 0; i < len; i++) {
-                    namesBatch[i] = names.pop();
-                    idsBatch[i] = ids.pop();
-                    removeBatch[i] = remove.pop();
-                }
-                PhysicsSyncObjMessage objMessage = new PhysicsSyncObjMessage();
-                objMessage.setName(namesBatch);
-                objMessage.setId(idsBatch);
-                objMessage.setRemove(removeBatch);
-                //Send to all clients
-                c.send(objMessage);
-            }
+            sender.add(c);
+            //The registry is copied on the tick the client is next synced, ordered by where objects are at that time
+            joining.add(c);
         }
     }
 
@@ -187,6 +203,8 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
             clients.remove(c);
             clientLatency.remove(c);
             clientRelations.remove(c);
+            joining.remove(c);
+            sender.remove(c);
         }
     }
 
@@ -210,11 +228,10 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
      */
     public void setLocation(HostedConnection c, Vector3f pos) {
         synchronized (lock) {
-            if (clients.containsKey(c)) {
-                clients.get(c).set(pos);
-            } else {
-                clients.put(c, pos.clone());
+            if (!clients.containsKey(c)) {
+                add(c);
             }
+            clients.get(c).set(pos);
         }
     }
 
@@ -288,6 +305,26 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
         return updateInterval;
     }
 
+    /**
+     * Spread the sync of clients across the physics ticks of an update interval.
+     * The world is still captured once per interval, on the first tick. Each client is filtered and sent that snapshot
+     * on the tick of its phase, so the per-client work and traffic of an interval is spread evenly over its ticks
+     * instead of landing on a single tick.
+     * When staggered, the update interval is rounded to a whole number of physics ticks.
+     *
+     * @param enabled If client syncs are staggered.
+     */
+    public void setStaggeredSync(boolean enabled) {
+        this.staggeredSync = enabled;
+    }
+
+    /**
+     * @return If client syncs are staggered across the physics ticks of an update interval.
+     */
+    public boolean isStaggeredSync() {
+        return staggeredSync;
+    }
+
     /**
      * Set the interval at which client latency is sampled
      *
@@ -306,6 +343,25 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
         return echoInterval;
     }
 
+    /**
+     * Enable a sweep of the registry for sleeping objects that woke without the sync engine seeing it,
+     * such as objects woken through a joint, or moved directly without being marked dirty.
+     * A share of the registry is swept each physics tick, so the whole registry is swept over the given number of intervals.
+     * The sweep is a safety net, it is disabled by default.
+     *
+     * @param intervals The number of sync intervals a full sweep takes, or 0 to disable the sweep
+     */
+    public void setWakeSweep(int intervals) {
+        this.wakeSweepIntervals = Math.max(intervals, 0);
+    }
+
+    /**
+     * @return The number of sync intervals a full sweep of the registry takes, or 0 if the sweep is disabled.
+     */
+    public int getWakeSweep() {
+        return wakeSweepIntervals;
+    }
+
     /**
      * Set the distance from the object that a client will receive a sync messages.
      * A distance less than 0 will cause all objects to by synced.
@@ -325,15 +381,292 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
         return syncDistance;
     }
 
+    /**
+     * Sync objects at a reduced rate depending on their distance to the client.
+     * Objects beyond every band are synced at the rate of the last band, up to the sync distance,
+     * so the sync distance is usually set to the distance of the last band.
+     * The final state of an object that stopped moving is always sent in the interval it stopped in.
+     *
+     * @param bands The distance bands, or null to sync every object within the sync distance every interval
+     */
+    public void setSyncBands(SyncBands bands) {
+        this.bands = bands;
+    }
+
+    /**
+     * @return The distance bands, or null if every object within the sync distance is synced every interval.
+     */
+    public SyncBands getSyncBands() {
+        return bands;
+    }
+
+    /**
+     * Set the margin between an object entering and leaving the range of a client.
+     * Objects are registered with a client when they come within the sync distance plus half the margin,
+     * and removed from the client once they are beyond the sync distance plus the whole margin.
+     * Clients without a location, or with a sync distance less than 0, are registered with every object.
+     *
+     * @param fraction The margin as a fraction of the sync distance, defaults to 0.2
+     */
+    public void setVisibilityHysteresis(float fraction) {
+        synchronized (lock) {
+            visibility.setHysteresis(fraction);
+        }
+    }
+
+    public float getVisibilityHysteresis() {
+        synchronized (lock) {
+            return visibility.getHysteresis();
+        }
+    }
+
+    /**
+     * Enable delta compression of physics states.
+     * When enabled, states are sent as quantized deltas against the last state each client acknowledged.
+     * Clients acknowledge the sync messages they received once per frame with a PhysicsAckMessage,
+     * so a state can be used as a baseline about one round trip after it was sent.
+     * Objects without an acknowledged baseline within PhysicsDeltaData.MAX_BASELINE_AGE intervals are sent as full states.
+     *
+     * @param enabled If physics states should be delta compressed.
+     */
+    public void setDeltaCompression(boolean enabled) {
+        this.deltaCompression = enabled;
+    }
+
+    /**
+     * @return If physics states are delta compressed.
+     */
+    public boolean isDeltaCompression() {
+        return deltaCompression;
+    }
+
+    /**
+     * Send the linear and angular velocity of rigid bodies with their state.
+     * Clients extrapolate objects by their velocity between updates, so the update interval can be raised.
+     * Velocities are in physics space, Spatials are expected to be attached to a Node without a transform.
+     *
+     * @param enabled If velocities should be synced.
+     */
+    public void setVelocitySync(boolean enabled) {
+        this.velocitySync = enabled;
+    }
+
+    /**
+     * @return If velocities are synced.
+     */
+    public boolean isVelocitySync() {
+        return velocitySync;
+    }
+
+    /**
+     * Skip sending a state when the pose a client extrapolates from the last state it was sent is within the thresholds.
+     * States are still sent at least once every <code>DeadReckoning.REFRESH_INTERVAL</code>, and the final state of an object
+     * that stopped moving is always sent. Without velocity sync, the client is predicted to hold the last state.
+     *
+     * @param distance The maximum position error in world units, or 0 to disable
+     * @param angle    The maximum rotation error in radians
+     */
+    public void setDeadReckoning(float distance, float angle) {
+        this.reckoningDistance = distance;
+        this.reckoningAngle = angle;
+    }
+
+    /**
+     * @return The maximum position error before a state is sent, or 0 if dead reckoning is disabled.
+     */
+    public float getDeadReckoningDistance() {
+        return reckoningDistance;
+    }
+
+    /**
+     * @return The maximum rotation error in radians before a state is sent.
+     */
+    public float getDeadReckoningAngle() {
+        return reckoningAngle;
+    }
+
+    /**
+     * Use the compact codec to encode physics states instead of the reflective serializer.
+     * The codec is registered with the Serializer by <code>registerMessages()</code>, so this must be set before registering.
+     * The codec is also made the default codec, clients must set the same default codec with <code>PhysicsStateCodec.setDefault()</code>.
+     *
+     * @param codec The codec to encode physics states with, or null to use the reflective serializer.
+     */
+    public void setCompactEncoding(PhysicsStateCodec codec) {
+        this.codec = codec;
+        if (codec != null) {
+            PhysicsStateCodec.setDefault(codec);
+        }
+    }
+
+    /**
+     * @return The codec used to encode physics states, or null if the reflective serializer is used.
+     */
+    public PhysicsStateCodec getCompactEncoding() {
+        return codec;
+    }
+
+    /**
+     * Set the number of sync intervals that can be queued for a client before the oldest is dropped.
+     * Physics states are sent off of the physics thread, a client that cannot keep up will skip intervals.
+     *
+     * @param intervals The number of intervals
+     */
+    public void setSendQueueSize(int intervals) {
+        sender.setQueueSize(intervals);
+    }
+
+    /**
+     * Get the number of sync intervals that can be queued for a client before the oldest is dropped.
+     *
+     * @return The number of intervals
+     */
+    public int getSendQueueSize() {
+        return sender.getQueueSize();
+    }
+
+    /**
+     * Set the number of threads used to build and send updates to clients.
+     * A value of 1 uses a single sender thread, a value of 0 uses one thread per available processor.
+     *
+     * @param threads The number of threads
+     */
+    public void setSendParallelism(int threads) {
+        sender.setParallelism(threads);
+    }
+
+    /**
+     * Get the number of threads used to build and send updates to clients.
+     *
+     * @return The number of threads
+     */
+    public int getSendParallelism() {
+        return sender.getParallelism();
+    }
+
+    /**
+     * Wait for the updates queued so far to be sent to clients.
+     *
+     * @param milliseconds The longest time to wait
+     * @return True if the updates were sent, false if the wait timed out.
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public boolean awaitSent(long milliseconds) throws InterruptedException {
+        return sender.awaitIdle(milliseconds);
+    }
+
+    /**
+     * Limit the bytes of physics states sent to each client per second.
+     * When limited, objects are sent in order of a priority that accumulates from their distance to the client,
+     * their speed, their size and the time since they were last sent. Objects that do not fit are sent in a later interval.
+     *
+     * @param bytesPerSecond The budget of each client, or 0 for no limit.
+     */
+    public void setClientBandwidth(int bytesPerSecond) {
+        sender.setBandwidth(bytesPerSecond);
+    }
+
+    /**
+     * @return The budget of each client in bytes per second, or 0 for no limit.
+     */
+    public int getClientBandwidth() {
+        return sender.getBandwidth();
+    }
+
+    /**
+     * Limit the bytes of physics states sent to a client per second, overriding the budget set for all clients.
+     *
+     * @param c              The client
+     * @param bytesPerSecond The budget of the client, 0 for no limit, or -1 to use the budget set for all clients.
+     */
+    public void setClientBandwidth(HostedConnection c, int bytesPerSecond) {
+        sender.add(c).setBandwidth(bytesPerSecond);
+    }
+
+    /**
+     * @param c The client
+     * @return The budget of the client in bytes per second, 0 for no limit, or -1 if the budget set for all clients is used.
+     */
+    public int getClientBandwidth(HostedConnection c) {
+        ClientChannel channel = sender.get(c);
+        return channel != null ? channel.getBandwidth() : -1;
+    }
+
+    /**
+     * Set the size in bytes that sync and registration messages are packed up to.
+     * Physics states are sent unreliably, keeping messages under the path MTU avoids IP fragmentation,
+     * where losing any fragment loses the whole message.
+     *
+     * @param bytes The maximum message size, defaults to 1200 bytes.
+     */
+    public void setMaxMessageSize(int bytes) {
+        sender.setMaxMessageSize(bytes);
+    }
+
+    /**
+     * @return The size in bytes that messages are packed up to.
+     */
+    public int getMaxMessageSize() {
+        return sender.getMaxMessageSize();
+    }
+
     /**
      * @return A Collection containing all Spatials currently in the physics sync engine.
      */
     public Collection<Spatial> objects() {
         synchronized (lock) {
-            return Collections.unmodifiableCollection(objects.values());
+            return Collections.unmodifiableCollection(registry.spatials());
+        }
+    }
+
+    /**
+     * Get the metrics of the sync engine.
+     *
+     * @return The metrics
+     */
+    public SyncMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the JMX object name the metrics are published under when the server is initialized.
+     *
+     * @param name The object name, or null to not publish the metrics over JMX.
+     */
+    public void setJmxName(String name) {
+        this.jmxName = name;
+    }
+
+    public String getJmxName() {
+        return jmxName;
+    }
+
+    /**
+     * Check if a client has received its initial view of the world.
+     *
+     * @param c The client
+     * @return True if every object has been registered with the client, and physics states are being synced.
+     */
+    public boolean isSynced(HostedConnection c) {
+        synchronized (lock) {
+            ClientChannel channel = sender.get(c);
+            return channel != null && channel.isSynced() && !joining.contains(c);
         }
     }
 
+    /**
+     * Set the bytes of object registrations streamed to a joining client per sync interval.
+     *
+     * @param bytes The budget
+     */
+    public void setJoinBudget(int bytes) {
+        sender.setJoinBudget(bytes);
+    }
+
+    public int getJoinBudget() {
+        return sender.getJoinBudget();
+    }
+
     /**
      * Get the one-way latency for the client over a 1 second average.
      *
@@ -366,6 +699,39 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
         }
     }
 
+    /**
+     * Get a percentile of the one-way latency for the client over the most recent echoes.
+     *
+     * @param client     The client to get the latency for.
+     * @param percentile The percentile, between 0 and 1. For example 0.95 for the 95th percentile.
+     * @return The one-way latency of the client in milliseconds.
+     */
+    public long getLatencyPercentile(HostedConnection client, double percentile) {
+        synchronized (lock) {
+            if (clientLatency.containsKey(client)) {
+                return clientLatency.get(client).getPercentile(percentile);
+            } else {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Get the jitter of the one-way latency for the client.
+     *
+     * @param client The client to get the jitter for.
+     * @return The mean deviation between consecutive latency samples in milliseconds.
+     */
+    public float getLatencyJitter(HostedConnection client) {
+        synchronized (lock) {
+            if (clientLatency.containsKey(client)) {
+                return clientLatency.get(client).getJitter();
+            } else {
+                return -1;
+            }
+        }
+    }
+
     /**
      * Initialize the Physics Sync Engine.
      * This must be performed after the NetworkServer has been created but before it is started,
@@ -378,12 +744,23 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
         this.app = app;
         //Register physics
         physics.getPhysicsSpace().addTickListener(this);
+        //Publish metrics
+        if (jmxName != null) {
+            try {
+                metrics.register(jmxName);
+            } catch (JMException ex) {
+                //Another server is registered under the name, metrics are still available from getMetrics()
+            }
+        }
     }
 
     @Override
     protected void cleanup(Application app) {
         clearClients();
         clearObjects();
+        sender.shutdown();
+        metrics.unregister();
+        debugShapes.clear();
     }
 
     /**
@@ -404,14 +781,26 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
     }
 
     /**
-     * Check which Spatials are currently active and need synced.
+     * Find sleeping objects that have woken.
+     * Only runs when the wake sweep is enabled. A share of the registry is swept each tick,
+     * so every object is checked once per sweep whatever woke it, while the cost of a tick stays bounded.
      *
-     * @param space
-     * @param timeStep
+     * @param space    The current physics space
+     * @param timeStep Delta from last tick
      */
     @Override
     public void prePhysicsTick(PhysicsSpace space, float timeStep) {
-        //Currently don't have anything to do before physics tick
+        int intervals = wakeSweepIntervals;
+        if (!loaded || intervals <= 0) {
+            sweepTime = 0;
+            return;
+        }
+        synchronized (lock) {
+            long sweepStart = System.nanoTime();
+            int ticks = Math.max(1, Math.round(updateInterval / (timeStep * 1000f))) * intervals;
+            sweepCursor = registry.wake(sweepCursor, (registry.limit() + ticks - 1) / ticks);
+            sweepTime = System.nanoTime() - sweepStart;
+        }
     }
 
     /**
@@ -426,34 +815,22 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
             return;
         }
         synchronized (lock) {
+            long scanStart = System.nanoTime();
             /*
              * We can check if a control is moving by the isActive() function.
-             * In order to do this, check over the Physics Objects in the world
+             * Only objects that are awake are checked, sleeping objects are found when an active object comes within reach,
+             * by markDirty(), or by the optional sweep in prePhysicsTick().
              * We will send one final update after the object has stopped moving.
              *
-             * Store object that need updated on clients in <code>updateStates</code>
+             * Store object that need updated on clients as dirty in the registry
              */
-            for (Spatial obj : objects()) {
-                if (obj.getControl(PhysicsControl.class) != null) {
-                    PhysicsControl control = obj.getControl(PhysicsControl.class);
-                    if (control instanceof PhysicsCollisionObject) {
-                        ((PhysicsCollisionObject) control).getObjectId();
-                        if (((PhysicsCollisionObject) control).isActive()) {
-                            updateStates.put(((PhysicsCollisionObject) control).getObjectId(), true); //Object state is active, and needs to be updated.
-                        } else {
-                            if (updateStates.containsKey(obj)) {
-                                Boolean lastState = updateStates.get(obj);
-                                if (!lastState) {
-                                    //The object has been stale for an update already.
-                                    //Will get removed on next sync
-                                } else {
-                                    updateStates.put(((PhysicsCollisionObject) control).getObjectId(), false); //Object is stale, but state will still get synced.
-                                }
-                            }
-                        }
-                    }
+            for (int i = registry.activeCount() - 1; i >= 0; i--) {
+                int slot = registry.getActive(i);
+                if (!registry.getBody(slot).isActive()) {
+                    registry.stop(slot); //Object is stale, but state will still get synced.
                 }
             }
+            metrics.recordScan(System.nanoTime() - scanStart + sweepTime);
 
             //Update latency data
             for (LatencyData data : clientLatency.values()) {
@@ -464,23 +841,30 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
 
             //Send echos to clients on interval
             if (currentTime > lastEcho + echoInterval) {
+                lastEcho = currentTime;
                 PhysicsEchoMessage msg = new PhysicsEchoMessage();
                 msg.setServerTime(currentTime);
-                for (HostedConnection conn : clients.keySet()) {
-                    conn.send(msg);
-                }
+                sender.broadcast(msg);
             }
 
-            //Check for the last update time for physics sync
-            if (currentTime > lastUpdate + updateInterval) {
-                //Perform sync
-                lastUpdate = currentTime;
+            //When staggered, the world is captured on the first tick of an interval,
+            //and the clients of one phase are synced from that snapshot on each tick
+            int phases = staggeredSync ? Math.max(1, Math.round(updateInterval / (timeStep * 1000f))) : 1;
+            int phase = (int) (tick % phases);
+            long round = tick++ - phase; //The tick the phases of this interval started on
+            boolean capture = staggeredSync ? phase == 0 : currentTime > lastUpdate + updateInterval;
+
+            if (capture || (staggeredSync && captureTick == round)) {
+                long syncStart = System.nanoTime();
+                int addBacklog = addQueue.size();
+                int removeBacklog = removeQueue.size();
 
                 //Send object info
                 Stack<String> names = new Stack<>();
                 Stack<Long> ids = new Stack<>();
                 Stack<Boolean> remove = new Stack<>();
-                int index = 0;
+                ArrayList<String> removedNames = new ArrayList<>();
+                ArrayList<Long> removedIds = new ArrayList<>();
                 while (addQueue.size() > 0) {
                     String name = addQueue.pop().getName();
                     names.push(name);
@@ -490,82 +874,127 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
                 while (removeQueue.size() > 0) {
                     String name = removeQueue.pop().getName();
                     names.push(name);
-                    ids.push(objCrossRef.get(name));
-                    objCrossRef.remove(name);
+                    Long id = objCrossRef.remove(name);
+                    ids.push(id);
                     remove.push(true);
+                    removedNames.add(name);
+                    removedIds.add(id);
+                    visibility.remove(id);
+                    for (ClientChannel channel : sender.channels()) {
+                        channel.getBaselines().remove(id);
+                    }
                 }
 
-                while (names.size() > 0) {
-                    int len = names.size() > PhysicsSyncObjMessage.MAX_PACK ? PhysicsSyncObjMessage.MAX_PACK : names.size();
-                    String[] namesBatch = new String[len];
-                    long[] idsBatch = new long[len];
-                    boolean[] removeBatch = new boolean[len];
-                    for (int i = 0; i < len; i++) {
-                        namesBatch[i] = names.pop();
-                        idsBatch[i] = ids.pop();
-                        removeBatch[i] = remove.pop();
+                //Registrations are sent to every client right away, whatever its phase
+                ArrayList<PhysicsSyncObjMessage> registrations = packRegistrations(names, ids, remove);
+                for (HostedConnection c : registrations.isEmpty() ? Collections.<HostedConnection>emptySet() : clients.keySet()) {
+                    ClientChannel channel = sender.get(c);
+                    if (channel == null || joining.contains(c)) {
+                        continue; //Joining clients are sent the registry as it is on the tick of their phase
                     }
-                    PhysicsSyncObjMessage objMessage = new PhysicsSyncObjMessage();
-                    objMessage.setName(namesBatch);
-                    objMessage.setId(idsBatch);
-                    objMessage.setRemove(removeBatch);
-                    //Send to all clients
-                    for (HostedConnection c : clients()) {
-                        c.send(objMessage);
+                    if (channel.getVisibility().isAll()) {
+                        //Send to all clients that see every object
+                        for (PhysicsSyncObjMessage objMessage : registrations) {
+                            sender.send(c, objMessage);
+                        }
+                    } else {
+                        //Clients that only see their neighbourhood are sent the removal of the objects they have
+                        Stack<String> clientNames = new Stack<>();
+                        Stack<Long> clientIds = new Stack<>();
+                        Stack<Boolean> clientRemove = new Stack<>();
+                        for (int i = 0; i < removedIds.size(); i++) {
+                            if (channel.getVisibility().remove(removedIds.get(i))) {
+                                clientNames.push(removedNames.get(i));
+                                clientIds.push(removedIds.get(i));
+                                clientRemove.push(true);
+                            }
+                        }
+                        for (PhysicsSyncObjMessage objMessage : packRegistrations(clientNames, clientIds, clientRemove)) {
+                            sender.send(c, objMessage);
+                        }
                     }
                 }
 
-                //We need to only update objects that are near the client player.
-                for (HostedConnection c : clients()) {
-                    //Update client relation if one exists
-                    if (clientRelations.containsKey(c)) {
-                        setLocation(c, clientRelations.get(c).getWorldTranslation());
+                if (capture) {
+                    //Perform sync
+                    lastUpdate = currentTime;
+                    captureTick = round;
+                    //Find sleeping objects woken by a contact with an active object
+                    registry.wakeContacts();
+                    if (snapshot != null) {
+                        snapshot.release();
                     }
-                    //Find objects to sync
-                    Stack<PhysicsStateData> data = new Stack<>();
-                    for (Long objId : updateStates.keySet()) {
-                        Spatial obj = objects.get(objId);
-                        //Check distance
-                        Vector3f clientPos = clients.get(c);
-                        if (clientPos.equals(Vector3f.NAN) || syncDistance < 0 || clientPos.distance(obj.getWorldTranslation()) < syncDistance) {
-                            PhysicsStateData stateData = new PhysicsStateData(objCrossRef.get(obj.getName()), obj.getLocalTranslation(), obj.getLocalRotation());
-                            data.push(stateData);
+                    //Only capture the state here, the sender filters, encodes and sends it off of the physics thread
+                    snapshot = new SyncSnapshot(currentTime, interval++, syncDistance, registry.activeCount() + registry.staleCount(), velocitySync, indexes);
+
+                    //Capture client positions, only the clients in the snapshot are sent its states
+                    for (HostedConnection c : clients.keySet()) {
+                        //Update client relation if one exists
+                        if (clientRelations.containsKey(c)) {
+                            clients.get(c).set(clientRelations.get(c).getWorldTranslation());
                         }
+                        snapshot.addClient(c, clients.get(c));
                     }
 
-                    //Send updates
-                    while (data.size() > 0) {
-                        int len = data.size() > PhysicsSyncMessage.MAX_PACK ? PhysicsSyncMessage.MAX_PACK : data.size();
-                        PhysicsStateData[] dataArray = new PhysicsStateData[len];
-                        for (int i = 0; i < len; i++) {
-                            dataArray[i] = data.pop();
-                        }
-                        PhysicsSyncMessage msg = new PhysicsSyncMessage();
-                        msg.setPhysicsData(dataArray);
-                        msg.setTimestamp(currentTime);
-                        try {
-                            c.send(msg);
-                        } catch (Exception ex) {
-                            //This occurs when the client is no longer connected to the server.
+                    //Capture object states
+                    for (int i = 0; i < registry.activeCount(); i++) {
+                        int slot = registry.getActive(i);
+                        snapshot.add(registry.getId(slot), registry.getSpatial(slot), registry.getBody(slot), false);
+                        visibility.move(registry.getId(slot), registry.getSpatial(slot).getWorldTranslation());
+                    }
+                    for (int i = 0; i < registry.staleCount(); i++) {
+                        int slot = registry.getStale(i);
+                        if (registry.getDirty(slot) == ObjectRegistry.STALE) {
+                            snapshot.add(registry.getId(slot), registry.getSpatial(slot), registry.getBody(slot), true);
+                            visibility.move(registry.getId(slot), registry.getSpatial(slot).getWorldTranslation());
                         }
                     }
+                    registry.clearStale();
+                    if (snapshot.getSyncDistance() >= 0) {
+                        visibility.prepare(snapshot.getSyncDistance(), registry);
+                    }
+                    visibility.next();
                 }
 
-                //Send debugging
-                broadcastDebug();
+                //Register objects with the clients of this phase as they come within range, and start streaming registrations to new clients
+                for (HostedConnection c : clients.keySet()) {
+                    if (inPhase(c, phases, phase)) {
+                        updateVisibility(c, sender.get(c), snapshot);
+                        joining.remove(c);
+                    }
+                }
+                sender.submit(snapshot, phases, phase);
+                if (capture) {
+                    metrics.recordCapture(System.nanoTime() - syncStart, snapshot.size(), addBacklog, removeBacklog);
+                }
 
-                //Cleanup stale objects from update states
-                for (Long objId : updateStates.keySet()) {
-                    //Check if the state is stale
-                    if (!updateStates.get(objId)) {
-                        //Remove stale state
-                        updateStates.remove(objId);
+                //Send debugging once per interval, only objects whose shape changed since a client last received them are sent
+                if (capture && debugClients.size() > 0) {
+                    long[] debugIds = new long[registry.size()];
+                    DebugShape[] shapes = new DebugShape[registry.size()];
+                    int count = 0;
+                    for (int slot = 0; slot < registry.limit(); slot++) {
+                        PhysicsCollisionObject body = registry.getBody(slot);
+                        if (body != null) {
+                            debugIds[count] = registry.getId(slot);
+                            shapes[count++] = debugShapes.get(body.getCollisionShape());
+                        }
                     }
+                    debugShapes.prune();
+                    sender.submitDebug(debugIds, shapes, count, new ArrayList<>(debugClients));
                 }
             }
         }
     }
 
+    /**
+     * @return True if the client is synced in the phase.
+     */
+    private boolean inPhase(HostedConnection c, int phases, int phase) {
+        ClientChannel channel = sender.get(c);
+        return channel != null && channel.getPhase() % phases == phase;
+    }
+
     /**
      * Receive message from server
      *
@@ -578,12 +1007,25 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
             if (clientLatency.containsKey(source)) {
                 clientLatency.get(source).add((PhysicsEchoMessage) m);
             }
+        } else if (m instanceof PhysicsAckMessage) {
+            ClientChannel channel = sender.get(source);
+            if (channel != null) {
+                PhysicsAckMessage ack = (PhysicsAckMessage) m;
+                for (int i = 0; i < ack.getSnapshots().length; i++) {
+                    channel.getBaselines().ack(ack.getSnapshots()[i], ack.getParts()[i]);
+                }
+            }
         } else if (m instanceof PhysicsDebugEnableMessage) {
             if (((PhysicsDebugEnableMessage) m).isEnabled()) {
                 debugClients.add(source);
             } else {
                 debugClients.remove(source);
             }
+            //A client subscribing again is sent every object and mesh again
+            ClientChannel channel = sender.get(source);
+            if (channel != null) {
+                channel.getDebug().clear();
+            }
         }
     }
 
@@ -592,38 +1034,107 @@ public class PhysicsSyncServer extends BaseAppState implements PhysicsTickListen
      * Must be call appropriately when network message registration needs to occur for your setup.
      */
     public void registerMessages() {
-        Serializer.registerClass(PhysicsStateData.class);
+        if (codec != null) {
+            Serializer.registerClass(PhysicsStateData.class, new PhysicsStateSerializer(codec));
+        } else {
+            Serializer.registerClass(PhysicsStateData.class);
+        }
+        Serializer.registerClass(PhysicsDeltaData.class);
         Serializer.registerClass(PhysicsSyncMessage.class);
         Serializer.registerClass(PhysicsEchoMessage.class);
+        Serializer.registerClass(PhysicsAckMessage.class);
         Serializer.registerClass(PhysicsSyncObjMessage.class);
         Serializer.registerClass(PhysicsDebugMessage.class);
         Serializer.registerClass(PhysicsDebugEnableMessage.class);
     }
 
-    private void updateDebug(PhysicsControl control) {
-        if (control instanceof PhysicsCollisionObject) {
-            Material debugMat = ((PhysicsCollisionObject) control).getDebugMaterial();
-            Mesh debugMesh = DebugShapeFactory.getDebugMesh(((PhysicsCollisionObject) control).getCollisionShape());
-            DebugData dd = objDebug.get(((PhysicsCollisionObject) control).getObjectId());
-            if (dd == null) {
-                dd = new DebugData();
-                objDebug.put(((PhysicsCollisionObject) control).getObjectId(), dd);
+    /**
+     * Update the objects registered with a client.
+     * A client with a location only has the objects near it registered, other clients have every object registered.
+     */
+    private void updateVisibility(HostedConnection c, ClientChannel channel, SyncSnapshot snapshot) {
+        VisibilitySet visible = channel.getVisibility();
+        Vector3f pos = clients.get(c);
+        float distance = snapshot.getSyncDistance();
+        boolean tracked = distance >= 0 && Vector3f.isValidVector(pos);
+        ArrayList<Long> enter = new ArrayList<>();
+        ArrayList<Long> leave = new ArrayList<>();
+        if (joining.contains(c)) {
+            if (tracked) {
+                visible.track(new long[0]);
+                visibility.update(visible, pos, distance, snapshot, enter, leave);
+                sender.join(c, registry.view(enter));
+            } else {
+                visible.setAll();
+                sender.join(c, registry.view());
+            }
+            return;
+        }
+        if (tracked) {
+            if (visible.isAll()) {
+                //The client has every object, the objects out of range are removed by the first sweep
+                visible.track(registry.ids());
             }
-            //dd.mat = debugMat;
-            dd.mesh = debugMesh;
-            dd.id = ((PhysicsCollisionObject) control).getObjectId();
+            visibility.update(visible, pos, distance, snapshot, enter, leave);
+        } else if (!visible.isAll()) {
+            //The client now receives every object, register the objects it does not have
+            for (long id : registry.ids()) {
+                if (!visible.contains(id)) {
+                    enter.add(id);
+                }
+            }
+            visible.setAll();
+        }
+        Stack<String> names = new Stack<>();
+        Stack<Long> ids = new Stack<>();
+        Stack<Boolean> remove = new Stack<>();
+        for (long id : leave) {
+            names.push(registry.getSpatial(registry.slot(id)).getName());
+            ids.push(id);
+            remove.push(true);
+        }
+        for (long id : enter) {
+            names.push(registry.getSpatial(registry.slot(id)).getName());
+            ids.push(id);
+            remove.push(false);
+        }
+        for (PhysicsSyncObjMessage objMessage : packRegistrations(names, ids, remove)) {
+            sender.send(c, objMessage);
         }
     }
 
-    private void broadcastDebug() {
-        if (debugClients.size() < 1) {
-            return;
-        }
-        for (DebugData dd : objDebug.values()) {
-            PhysicsDebugMessage debugMessage = new PhysicsDebugMessage(dd);
-            for (HostedConnection conn : debugClients) {
-                conn.send(debugMessage);
+    /**
+     * Pack registration entries into messages up to the maximum message size, taking entries from the top of the stacks.
+     * A message always holds at least one entry, even if the entry alone is larger.
+     */
+    private ArrayList<PhysicsSyncObjMessage> packRegistrations(Stack<String> names, Stack<Long> ids, Stack<Boolean> remove) {
+        ArrayList<PhysicsSyncObjMessage> messages = new ArrayList<>();
+        int maxSize = sender.getMaxMessageSize();
+        while (names.size() > 0) {
+            int len = 0;
+            int size = MessageSizes.OBJ_MESSAGE;
+            while (len < names.size() && len < PhysicsSyncObjMessage.MAX_PACK) {
+                int entry = MessageSizes.registration(names.get(names.size() - 1 - len));
+                if (len > 0 && size + entry > maxSize) {
+                    break;
+                }
+                size += entry;
+                len++;
+            }
+            String[] namesBatch = new String[len];
+            int[] idsBatch = new int[len];
+            boolean[] removeBatch = new boolean[len];
+            for (int i = 0; i < len; i++) {
+                namesBatch[i] = names.pop();
+                idsBatch[i] = ids.pop().intValue();
+                removeBatch[i] = remove.pop();
             }
+            PhysicsSyncObjMessage objMessage = new PhysicsSyncObjMessage();
+            objMessage.setName(namesBatch);
+            objMessage.setId(idsBatch);
+            objMessage.setRemove(removeBatch);
+            messages.add(objMessage);
         }
+        return messages;
     }
-}
+}
\ No newline at end of file
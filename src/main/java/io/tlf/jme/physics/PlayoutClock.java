@@ -0,0 +1,66 @@
+package io.tlf.jme.physics;
+
+/**
+ * Client side estimate of server time, used to render buffered states a playout delay behind the server.
+ * Every received sync message samples the difference between its server timestamp and the local arrival time.
+ * The offset follows the samples slowly, and the jitter is the mean deviation of the samples from the offset,
+ * smoothed the same way as the interarrival jitter of RFC 3550.
+ * Samples are added from the network thread while the render thread reads the clock, so access is synchronized.
+ */
+public class PlayoutClock {
+
+    private static final double GAIN = 1.0 / 16.0;
+
+    private boolean initialized = false;
+    private double offset = 0;
+    private double jitter = 0;
+
+    /**
+     * Add a sample from a received message.
+     *
+     * @param serverTime The server timestamp of the message
+     * @param localTime  The local time the message arrived
+     */
+    public synchronized void sample(long serverTime, long localTime) {
+        double sample = serverTime - localTime;
+        if (!initialized) {
+            initialized = true;
+            offset = sample;
+            return;
+        }
+        double deviation = sample - offset;
+        jitter += (Math.abs(deviation) - jitter) * GAIN;
+        offset += deviation * GAIN;
+    }
+
+    /**
+     * @return If a sample has been received.
+     */
+    public synchronized boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @param localTime The local time
+     * @return The estimated server time a message sent now would carry when it arrives.
+     */
+    public synchronized long serverTime(long localTime) {
+        return localTime + Math.round(offset);
+    }
+
+    /**
+     * @return The measured jitter in milliseconds.
+     */
+    public synchronized float getJitter() {
+        return (float) jitter;
+    }
+
+    /**
+     * Forget all samples.
+     */
+    public synchronized void reset() {
+        initialized = false;
+        offset = 0;
+        jitter = 0;
+    }
+}
@@ -0,0 +1,139 @@
+package io.tlf.jme.physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Per-client priority accumulator.
+ * Every interval each object waiting to be sent gains priority based on its distance, speed and size,
+ * then the highest priority objects are sent until the client's byte budget is spent.
+ * Objects that do not fit keep their priority, and their newest state, for the next interval.
+ * The accumulator is not thread safe.
+ */
+public class PriorityAccumulator {
+
+    /**
+     * Distance, in world units, at which an object gains half the priority of an object at the client
+     */
+    public static final float DISTANCE_FALLOFF = 20f;
+    /**
+     * Speed, in world units per second, that doubles the priority of an object
+     */
+    public static final float SPEED_SCALE = 5f;
+    /**
+     * Size, in world units, that doubles the priority of an object
+     */
+    public static final float SIZE_SCALE = 2f;
+
+    private LongIntMap index = new LongIntMap();
+    private long[] ids = new long[64];
+    private float[] priorities = new float[64];
+    private PhysicsStateData[] states = new PhysicsStateData[64];
+    private int count = 0;
+    private long[] order = new long[64];
+    private int carry = 0;
+
+    /**
+     * Accumulate priority for an object that needs synced.
+     *
+     * @param state    The newest state of the object
+     * @param distance The distance from the client to the object
+     * @param speed    The speed of the object
+     * @param size     The size of the object
+     * @param seconds  The time since the last interval
+     */
+    public void accumulate(PhysicsStateData state, float distance, float speed, float size, float seconds) {
+        long id = state.getId();
+        int i = index.get(id);
+        if (i == LongIntMap.MISSING) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                priorities = Arrays.copyOf(priorities, count * 2);
+                states = Arrays.copyOf(states, count * 2);
+            }
+            i = count++;
+            index.put(id, i);
+            ids[i] = id;
+            priorities[i] = 0;
+        }
+        states[i] = state;
+        float weight = (1f + speed / SPEED_SCALE) * (1f + size / SIZE_SCALE) / (1f + distance / DISTANCE_FALLOFF);
+        priorities[i] += weight * seconds;
+    }
+
+    /**
+     * Select the highest priority objects that fit in the budget, and reset their priority.
+     * Unused budget is carried into the next interval, up to one interval worth,
+     * or enough for the next object when a single state does not fit in an interval.
+     *
+     * @param budget The number of bytes that may be sent this interval
+     * @param codec  The codec used to size states, or null for the reflective serializer
+     * @return The states to send, highest priority first.
+     */
+    public ArrayList<PhysicsStateData> select(int budget, PhysicsStateCodec codec) {
+        if (order.length < count) {
+            order = new long[ids.length];
+        }
+        for (int i = 0; i < count; i++) {
+            //Priorities are positive, so their bits sort in the same order as their values
+            order[i] = ((long) Float.floatToIntBits(priorities[i]) << 32) | i;
+        }
+        Arrays.sort(order, 0, count);
+
+        int available = budget + carry;
+        int blocked = 0;
+        ArrayList<PhysicsStateData> selected = new ArrayList<>();
+        for (int n = count - 1; n >= 0; n--) {
+            int i = (int) order[n];
+            int size = MessageSizes.state(states[i], codec);
+            if (size > available) {
+                blocked = size;
+                break;
+            }
+            available -= size;
+            selected.add(states[i]);
+        }
+        carry = Math.min(available, Math.max(budget, blocked));
+        for (PhysicsStateData state : selected) {
+            remove(state.getId());
+        }
+        return selected;
+    }
+
+    /**
+     * @return The number of objects waiting to be sent.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Forget all objects and any carried budget.
+     */
+    public void clear() {
+        index.clear();
+        Arrays.fill(states, 0, count, null);
+        count = 0;
+        carry = 0;
+    }
+
+    /**
+     * Forget an object.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        int i = index.remove(id);
+        if (i == LongIntMap.MISSING) {
+            return;
+        }
+        int last = --count;
+        if (i != last) {
+            ids[i] = ids[last];
+            priorities[i] = priorities[last];
+            states[i] = states[last];
+            index.put(ids[i], i);
+        }
+        states[last] = null;
+    }
+}
@@ -0,0 +1,62 @@
+package io.tlf.jme.physics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-second rate over a sliding window of one second buckets, and a running total.
+ * Every sender thread records into the same counters, so buckets are LongAdders and recording takes no lock.
+ * Each bucket is tagged with the second it counts, and the first add of a new second resets the bucket.
+ * An add racing that reset may be lost, which only matters at the start of a second.
+ * Recording never allocates.
+ */
+public class RateCounter {
+
+    private static final int BUCKETS = 10;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final AtomicLongArray seconds = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+
+    public RateCounter() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param amount The amount to add at the current time
+     */
+    public void add(long amount) {
+        long now = System.currentTimeMillis() / 1000;
+        int bucket = (int) (now % BUCKETS);
+        long second = seconds.get(bucket);
+        if (second < now && seconds.compareAndSet(bucket, second, now)) {
+            buckets[bucket].reset();
+        }
+        buckets[bucket].add(amount);
+        total.add(amount);
+    }
+
+    /**
+     * @return The average per second over the completed seconds of the window.
+     */
+    public double getRate() {
+        long now = System.currentTimeMillis() / 1000;
+        long window = 0;
+        for (int i = 1; i < BUCKETS; i++) {
+            int bucket = (int) ((now - i) % BUCKETS);
+            if (seconds.get(bucket) == now - i) {
+                window += buckets[bucket].sum();
+            }
+        }
+        return window / (double) (BUCKETS - 1);
+    }
+
+    /**
+     * @return The total of everything added.
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+}
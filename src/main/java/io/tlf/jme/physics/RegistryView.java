@@ -0,0 +1,44 @@
+package io.tlf.jme.physics;
+
+/**
+ * Immutable copy of the objects in the registry.
+ * Positions are the positions of the objects when the view was taken.
+ */
+public class RegistryView {
+
+    private final long[] ids;
+    private final String[] names;
+    private final float[] positions;
+
+    public RegistryView(long[] ids, String[] names, float[] positions) {
+        this.ids = ids;
+        this.names = names;
+        this.positions = positions;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long getId(int i) {
+        return ids[i];
+    }
+
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * @param i  The object
+     * @param x  The x coordinate
+     * @param y  The y coordinate
+     * @param z  The z coordinate
+     * @return The squared distance from the object to the point.
+     */
+    public float distanceSquared(int i, float x, float y, float z) {
+        float dx = positions[i * 3] - x;
+        float dy = positions[i * 3 + 1] - y;
+        float dz = positions[i * 3 + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
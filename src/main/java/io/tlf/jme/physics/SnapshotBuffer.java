@@ -0,0 +1,152 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+/**
+ * Client side buffer of the most recent timestamped states of an object, kept in server time order.
+ * States arriving out of order are inserted in place, so the object is rendered between the two states
+ * that bracket the playout time no matter the order they were received in.
+ * The buffer is not thread safe.
+ */
+public class SnapshotBuffer {
+
+    /**
+     * Number of states kept per object
+     */
+    public static final int SIZE = 8;
+
+    private Entry[] entries = new Entry[SIZE];
+    private int count = 0;
+    private Spatial spatial;
+
+    public SnapshotBuffer() {
+        for (int i = 0; i < SIZE; i++) {
+            entries[i] = new Entry();
+        }
+    }
+
+    public Spatial getSpatial() {
+        return spatial;
+    }
+
+    public void setSpatial(Spatial spatial) {
+        this.spatial = spatial;
+    }
+
+    /**
+     * Insert a state, dropping the oldest state if the buffer is full.
+     *
+     * @param time  The server time of the state
+     * @param state The state, the values are copied
+     * @return False if the state is older than every buffered state, or already buffered.
+     */
+    public boolean add(long time, PhysicsStateData state) {
+        int i = count;
+        while (i > 0 && entries[i - 1].time > time) {
+            i--;
+        }
+        if (i > 0 && entries[i - 1].time == time) {
+            return false;
+        }
+        Entry entry;
+        if (count == SIZE) {
+            if (i == 0) {
+                return false;
+            }
+            //Reuse the oldest entry, shifting older entries down to make room
+            entry = entries[0];
+            System.arraycopy(entries, 1, entries, 0, i - 1);
+            i--;
+        } else {
+            entry = entries[count];
+            System.arraycopy(entries, i, entries, i + 1, count - i);
+            count++;
+        }
+        entries[i] = entry;
+        entry.time = time;
+        entry.pos.set(state.getLocation());
+        entry.rot.set(state.getRotation());
+        entry.velocity = state.hasVelocity();
+        if (entry.velocity) {
+            entry.linear.set(state.getLinearVelocity());
+            entry.angular.set(state.getAngularVelocity());
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of buffered states.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The server time of the newest state, or -1 if the buffer is empty.
+     */
+    public long getNewestTime() {
+        return count > 0 ? entries[count - 1].time : -1;
+    }
+
+    /**
+     * Sample the pose of the object at a server time.
+     * Between two states the pose is interpolated, before the oldest state the oldest state is held,
+     * and after the newest state the pose is extrapolated by its velocity, or held if it has none.
+     *
+     * @param time               The server time to sample at
+     * @param extrapolationLimit The longest time to extrapolate past the newest state, in milliseconds
+     * @param storePos           Receives the location
+     * @param storeRot           Receives the rotation
+     * @return False if the buffer is empty.
+     */
+    public boolean sample(long time, long extrapolationLimit, Vector3f storePos, Quaternion storeRot) {
+        if (count == 0) {
+            return false;
+        }
+        Entry first = entries[0];
+        if (time <= first.time) {
+            storePos.set(first.pos);
+            storeRot.set(first.rot);
+            return true;
+        }
+        int next = 1;
+        while (next < count && entries[next].time <= time) {
+            next++;
+        }
+        if (next == count) {
+            Entry newest = entries[count - 1];
+            if (newest.velocity) {
+                float seconds = Math.min(time - newest.time, extrapolationLimit) / 1000f;
+                DeadReckoning.extrapolate(newest.pos, newest.rot, newest.linear, newest.angular, seconds, storePos, storeRot);
+            } else {
+                storePos.set(newest.pos);
+                storeRot.set(newest.rot);
+            }
+            return true;
+        }
+        Entry a = entries[next - 1];
+        Entry b = entries[next];
+        float blend = (float) (time - a.time) / (float) (b.time - a.time);
+        storePos.interpolateLocal(a.pos, b.pos, blend);
+        storeRot.slerp(a.rot, b.rot, blend);
+        return true;
+    }
+
+    /**
+     * Remove all buffered states.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    private static class Entry {
+        long time;
+        Vector3f pos = new Vector3f();
+        Quaternion rot = new Quaternion();
+        boolean velocity;
+        Vector3f linear = new Vector3f();
+        Vector3f angular = new Vector3f();
+    }
+}
@@ -0,0 +1,91 @@
+package io.tlf.jme.physics;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Client side table of snapshot buffers indexed by object id.
+ * Buffers are kept in a dense array for iteration each frame, and buffers of removed objects are pooled for reuse.
+ * The table is not thread safe.
+ */
+public class SnapshotBufferTable {
+
+    private LongIntMap index = new LongIntMap();
+    private long[] ids = new long[64];
+    private SnapshotBuffer[] buffers = new SnapshotBuffer[64];
+    private int count = 0;
+    private ArrayDeque<SnapshotBuffer> pool = new ArrayDeque<>();
+
+    /**
+     * Get the buffer of an object, taking one from the pool if the object does not have a buffer.
+     *
+     * @param id The object id
+     * @return The buffer of the object
+     */
+    public SnapshotBuffer add(long id) {
+        int i = index.get(id);
+        if (i != LongIntMap.MISSING) {
+            return buffers[i];
+        }
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+            buffers = Arrays.copyOf(buffers, count * 2);
+        }
+        SnapshotBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = new SnapshotBuffer();
+        }
+        i = count++;
+        index.put(id, i);
+        ids[i] = id;
+        buffers[i] = buffer;
+        return buffer;
+    }
+
+    /**
+     * Remove the buffer of an object and return it to the pool.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        int i = index.remove(id);
+        if (i == LongIntMap.MISSING) {
+            return;
+        }
+        SnapshotBuffer buffer = buffers[i];
+        buffer.clear();
+        buffer.setSpatial(null);
+        pool.push(buffer);
+        int last = --count;
+        if (i != last) {
+            ids[i] = ids[last];
+            buffers[i] = buffers[last];
+            index.put(ids[i], i);
+        }
+        buffers[last] = null;
+    }
+
+    /**
+     * @return The number of buffers.
+     */
+    public int size() {
+        return count;
+    }
+
+    public long getId(int i) {
+        return ids[i];
+    }
+
+    public SnapshotBuffer get(int i) {
+        return buffers[i];
+    }
+
+    /**
+     * Remove all buffers and return them to the pool.
+     */
+    public void clear() {
+        while (count > 0) {
+            remove(ids[count - 1]);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Uniform hash grid of object ids used to answer range queries without scanning every object.
+ * Objects are bucketed into cubic cells, a query only visits the cells overlapping the query sphere.
+ * Cells are keyed by their packed grid coordinate, and cells and entries live in pooled arrays,
+ * so inserting, moving and rebuilding do not allocate once the arrays have grown to fit.
+ * The index is not thread safe.
+ */
+public class SpatialIndex {
+
+    private float cellSize;
+    //Occupied cells, cell index by packed grid coordinate. Cells are kept dense.
+    private LongIntMap cells;
+    private long[] cellKeys;
+    private int[] heads;
+    private int cellCount = 0;
+    //Indexed objects, entry index by id. Entries are kept dense and linked per cell.
+    private LongIntMap locations;
+    private long[] ids;
+    private float[] pos;
+    private int[] cellOf;
+    private int[] next;
+    private int[] prev;
+    private int size = 0;
+
+    /**
+     * @param cellSize The edge length of a grid cell, ideally close to the typical query radius.
+     */
+    public SpatialIndex(float cellSize) {
+        this(cellSize, 16);
+    }
+
+    /**
+     * @param cellSize The edge length of a grid cell, ideally close to the typical query radius.
+     * @param capacity The expected number of objects
+     */
+    public SpatialIndex(float cellSize, int capacity) {
+        capacity = Math.max(capacity, 1);
+        cells = new LongIntMap(capacity);
+        cellKeys = new long[capacity];
+        heads = new int[capacity];
+        locations = new LongIntMap(capacity);
+        ids = new long[capacity];
+        pos = new float[capacity * 3];
+        cellOf = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        setCellSize(cellSize);
+    }
+
+    /**
+     * Set the edge length of a grid cell.
+     * Changing the cell size will clear the index.
+     *
+     * @param cellSize The edge length of a grid cell.
+     */
+    public void setCellSize(float cellSize) {
+        if (!(cellSize > 0)) {
+            cellSize = 1f;
+        }
+        if (cellSize != this.cellSize) {
+            this.cellSize = cellSize;
+            clear();
+        }
+    }
+
+    /**
+     * @return The edge length of a grid cell.
+     */
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return The number of objects in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all objects from the index.
+     * Storage is kept so the index can be rebuilt without allocating.
+     */
+    public void clear() {
+        cells.clear();
+        locations.clear();
+        cellCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Insert an object into the index, or move it if it is already indexed.
+     *
+     * @param id  The object id
+     * @param pos The world position of the object
+     */
+    public void put(long id, Vector3f pos) {
+        put(id, pos.x, pos.y, pos.z);
+    }
+
+    /**
+     * Insert an object into the index, or move it if it is already indexed.
+     *
+     * @param id The object id
+     * @param x  The world x position of the object
+     * @param y  The world y position of the object
+     * @param z  The world z position of the object
+     */
+    public void put(long id, float x, float y, float z) {
+        long key = key(cell(x), cell(y), cell(z));
+        int e = locations.get(id);
+        if (e != LongIntMap.MISSING) {
+            if (cellKeys[cellOf[e]] == key) {
+                set(e, x, y, z);
+                return;
+            }
+            unlink(e);
+        } else {
+            if (size == ids.length) {
+                growEntries(size * 2);
+            }
+            e = size++;
+            ids[e] = id;
+            locations.put(id, e);
+        }
+        set(e, x, y, z);
+        link(e, cell(key));
+    }
+
+    /**
+     * Remove an object from the index.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        int e = locations.remove(id);
+        if (e == LongIntMap.MISSING) {
+            return;
+        }
+        unlink(e);
+        int last = --size;
+        if (e != last) {
+            //Move the last entry into the freed spot
+            ids[e] = ids[last];
+            set(e, pos[last * 3], pos[last * 3 + 1], pos[last * 3 + 2]);
+            cellOf[e] = cellOf[last];
+            next[e] = next[last];
+            prev[e] = prev[last];
+            if (prev[e] >= 0) {
+                next[prev[e]] = e;
+            } else {
+                heads[cellOf[e]] = e;
+            }
+            if (next[e] >= 0) {
+                prev[next[e]] = e;
+            }
+            locations.put(ids[e], e);
+        }
+    }
+
+    /**
+     * Get the position an object was indexed at.
+     *
+     * @param id    The object id
+     * @param store The vector to store the position in
+     * @return False if the object is not in the index.
+     */
+    public boolean get(long id, Vector3f store) {
+        int e = locations.get(id);
+        if (e == LongIntMap.MISSING) {
+            return false;
+        }
+        store.set(pos[e * 3], pos[e * 3 + 1], pos[e * 3 + 2]);
+        return true;
+    }
+
+    /**
+     * Visit every indexed object within the radius of the center.
+     *
+     * @param center  The center of the query sphere
+     * @param radius  The radius of the query sphere
+     * @param visitor Receives the id of each object within range
+     */
+    public void query(Vector3f center, float radius, LongConsumer visitor) {
+        float radiusSq = radius * radius;
+        int minX = cell(center.x - radius), maxX = cell(center.x + radius);
+        int minY = cell(center.y - radius), maxY = cell(center.y + radius);
+        int minZ = cell(center.z - radius), maxZ = cell(center.z + radius);
+        long span = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (span > cellCount) {
+            //Fewer occupied cells than cells in range, walk the occupied ones instead
+            for (int c = 0; c < cellCount; c++) {
+                visit(c, center, radiusSq, visitor);
+            }
+            return;
+        }
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    int c = cells.get(key(x, y, z));
+                    if (c != LongIntMap.MISSING) {
+                        visit(c, center, radiusSq, visitor);
+                    }
+                }
+            }
+        }
+    }
+
+    private void visit(int c, Vector3f center, float radiusSq, LongConsumer visitor) {
+        for (int e = heads[c]; e >= 0; e = next[e]) {
+            float dx = pos[e * 3] - center.x;
+            float dy = pos[e * 3 + 1] - center.y;
+            float dz = pos[e * 3 + 2] - center.z;
+            if (dx * dx + dy * dy + dz * dz < radiusSq) {
+                visitor.accept(ids[e]);
+            }
+        }
+    }
+
+    /**
+     * @return The index of the cell with the key, occupying a new cell if there is none.
+     */
+    private int cell(long key) {
+        int c = cells.get(key);
+        if (c == LongIntMap.MISSING) {
+            if (cellCount == cellKeys.length) {
+                cellKeys = Arrays.copyOf(cellKeys, cellCount * 2);
+                heads = Arrays.copyOf(heads, cellCount * 2);
+            }
+            c = cellCount++;
+            cellKeys[c] = key;
+            heads[c] = -1;
+            cells.put(key, c);
+        }
+        return c;
+    }
+
+    private void link(int e, int c) {
+        cellOf[e] = c;
+        prev[e] = -1;
+        next[e] = heads[c];
+        if (heads[c] >= 0) {
+            prev[heads[c]] = e;
+        }
+        heads[c] = e;
+    }
+
+    private void unlink(int e) {
+        int c = cellOf[e];
+        if (prev[e] >= 0) {
+            next[prev[e]] = next[e];
+        } else {
+            heads[c] = next[e];
+        }
+        if (next[e] >= 0) {
+            prev[next[e]] = prev[e];
+        }
+        if (heads[c] < 0) {
+            //Swap the last occupied cell into the freed spot
+            cells.remove(cellKeys[c]);
+            int last = --cellCount;
+            if (c != last) {
+                cellKeys[c] = cellKeys[last];
+                heads[c] = heads[last];
+                cells.put(cellKeys[c], c);
+                for (int i = heads[c]; i >= 0; i = next[i]) {
+                    cellOf[i] = c;
+                }
+            }
+        }
+    }
+
+    private void set(int e, float x, float y, float z) {
+        pos[e * 3] = x;
+        pos[e * 3 + 1] = y;
+        pos[e * 3 + 2] = z;
+    }
+
+    private void growEntries(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        pos = Arrays.copyOf(pos, capacity * 3);
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    private int cell(float v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private static long key(int x, int y, int z) {
+        return ((x & 0x1FFFFFL) << 42) | ((y & 0x1FFFFFL) << 21) | (z & 0x1FFFFFL);
+    }
+}
@@ -0,0 +1,133 @@
+package io.tlf.jme.physics;
+
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+import java.util.Arrays;
+
+/**
+ * Client side lookup of synced Spatials by object id.
+ * Network ids are dense, so entries are kept in an array indexed by the slot of the id,
+ * and the whole id is checked so an entry is not found by the id of an object that held the slot before it.
+ * Names are registered as registration messages arrive, and each name is resolved against the scene graph once,
+ * the first time a state for the object is applied. Objects that are not in the scene yet are looked up again
+ * with a growing delay, so a missing object does not cost a scene graph walk for every state.
+ * A cached Spatial that has been detached from the scene is resolved again.
+ * The lookup is not thread safe.
+ */
+public class SpatialLookup {
+
+    /**
+     * Delay in milliseconds before looking for a missing object again, doubled on each miss
+     */
+    public static final long MIN_RETRY = 50;
+    /**
+     * Longest delay in milliseconds between looking for a missing object
+     */
+    public static final long MAX_RETRY = 1000;
+
+    private final Node root;
+    private Entry[] entries = new Entry[64];
+
+    /**
+     * @param root The node synced Spatials are attached under
+     */
+    public SpatialLookup(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Register the name of an object, replacing any previous registration of the id.
+     *
+     * @param id   The object id
+     * @param name The name of the Spatial
+     */
+    public void register(long id, String name) {
+        int index = (int) (id & ObjectRegistry.SLOT_MASK);
+        if (index >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(index + 1, entries.length * 2));
+        }
+        Entry entry = new Entry();
+        entry.id = id;
+        entry.name = name;
+        entries[index] = entry;
+    }
+
+    public void unregister(long id) {
+        if (entry(id) != null) {
+            entries[(int) (id & ObjectRegistry.SLOT_MASK)] = null;
+        }
+    }
+
+    /**
+     * @param id The object id
+     * @return If the object has been registered.
+     */
+    public boolean isRegistered(long id) {
+        return entry(id) != null;
+    }
+
+    /**
+     * Get the Spatial of an object.
+     *
+     * @param id  The object id
+     * @param now The current time in milliseconds
+     * @return The Spatial, or null if the object is not registered or not in the scene.
+     */
+    public Spatial get(long id, long now) {
+        Entry entry = entry(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.spatial != null) {
+            if (isAttached(entry.spatial)) {
+                return entry.spatial;
+            }
+            entry.spatial = null; //Removed from the scene, it may have been replaced by another Spatial of the same name
+        }
+        if (now < entry.retryAt) {
+            return null;
+        }
+        Spatial spatial = root.getChild(entry.name);
+        if (spatial == null) {
+            entry.retry = entry.retry == 0 ? MIN_RETRY : Math.min(entry.retry * 2, MAX_RETRY);
+            entry.retryAt = now + entry.retry;
+            return null;
+        }
+        entry.spatial = spatial;
+        entry.retry = 0;
+        entry.retryAt = 0;
+        return spatial;
+    }
+
+    public void clear() {
+        Arrays.fill(entries, null);
+    }
+
+    private Entry entry(long id) {
+        int index = (int) (id & ObjectRegistry.SLOT_MASK);
+        if (index < entries.length && entries[index] != null && entries[index].id == id) {
+            return entries[index];
+        }
+        return null;
+    }
+
+    private boolean isAttached(Spatial spatial) {
+        Node parent = spatial.getParent();
+        while (parent != null) {
+            if (parent == root) {
+                return true;
+            }
+            parent = parent.getParent();
+        }
+        return spatial == root;
+    }
+
+    private static class Entry {
+        long id;
+        String name;
+        Spatial spatial;
+        long retry;
+        long retryAt;
+    }
+}
@@ -0,0 +1,156 @@
+package io.tlf.jme.physics;
+
+import java.util.Arrays;
+
+/**
+ * Coalescing mailbox between the network threads and the render thread.
+ * Network threads post states, and only the newest state of each object by server timestamp is kept,
+ * so the render thread applies at most one state per object each time it drains the mailbox,
+ * no matter how many messages arrived while it was busy.
+ * Network ids are dense, so pending states are kept in arrays indexed by the slot of the id,
+ * and posting and draining do not allocate once the arrays have grown to fit.
+ * <p>
+ * The mailbox is guarded by a lock rather than being lock-free. Keeping the newest state by timestamp
+ * needs the state and its timestamp replaced together, which a lock-free slot can only do by allocating
+ * a holder for each posted state, and the slot arrays grow as ids are assigned.
+ * The lock is held for a few array stores: a network thread takes it once per message, not once per state,
+ * and the render thread once per frame to copy the pending states out, applying them after releasing it.
+ */
+public class StateMailbox {
+
+    private final Object lock = new Object();
+    //Pending state of each slot, guarded by the lock
+    private long[] ids = new long[64];
+    private PhysicsStateData[] states = new PhysicsStateData[64];
+    private long[] timestamps = new long[64];
+    private int[] pendingIndex = new int[64];
+    private int[] pending = new int[64];
+    private int count = 0;
+    //States taken by a drain, only used by the draining thread
+    private PhysicsStateData[] drained = new PhysicsStateData[64];
+    private long[] drainedTimestamps = new long[64];
+
+    /**
+     * Post a state, replacing the pending state of the object if this state is newer.
+     *
+     * @param state     The state
+     * @param timestamp The server time of the state
+     */
+    public void post(PhysicsStateData state, long timestamp) {
+        synchronized (lock) {
+            put(state, timestamp);
+        }
+    }
+
+    /**
+     * Post the states of a message, replacing the pending state of each object if the message is newer.
+     *
+     * @param states    The states, null entries are skipped
+     * @param count     The number of states to post from the start of the array
+     * @param timestamp The server time of the states
+     */
+    public void post(PhysicsStateData[] states, int count, long timestamp) {
+        synchronized (lock) {
+            for (int i = 0; i < count; i++) {
+                if (states[i] != null) {
+                    put(states[i], timestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take every pending state.
+     * States posted while draining are left for the next drain.
+     *
+     * @param consumer Receives each pending state
+     */
+    public void drain(Consumer consumer) {
+        int taken;
+        synchronized (lock) {
+            taken = count;
+            if (drained.length < taken) {
+                drained = new PhysicsStateData[states.length];
+                drainedTimestamps = new long[states.length];
+            }
+            for (int i = 0; i < taken; i++) {
+                int slot = pending[i];
+                drained[i] = states[slot];
+                drainedTimestamps[i] = timestamps[slot];
+                states[slot] = null;
+            }
+            count = 0;
+        }
+        //Applied outside the lock, so network threads are not blocked by the render thread
+        for (int i = 0; i < taken; i++) {
+            consumer.accept(drained[i], drainedTimestamps[i]);
+            drained[i] = null;
+        }
+    }
+
+    /**
+     * Drop the pending state of an object.
+     *
+     * @param id The object id
+     */
+    public void remove(long id) {
+        int slot = (int) (id & ObjectRegistry.SLOT_MASK);
+        synchronized (lock) {
+            if (slot < states.length && states[slot] != null && ids[slot] == id) {
+                states[slot] = null;
+                //Swap the last pending slot into the freed spot
+                int index = pendingIndex[slot];
+                int last = pending[--count];
+                pending[index] = last;
+                pendingIndex[last] = index;
+            }
+        }
+    }
+
+    /**
+     * @return The number of objects with a pending state.
+     */
+    public int size() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            for (int i = 0; i < count; i++) {
+                states[pending[i]] = null;
+            }
+            count = 0;
+        }
+    }
+
+    private void put(PhysicsStateData state, long timestamp) {
+        long id = state.getId();
+        int slot = (int) (id & ObjectRegistry.SLOT_MASK);
+        if (slot >= states.length) {
+            grow(Math.max(slot + 1, states.length * 2));
+        }
+        if (states[slot] == null) {
+            pendingIndex[slot] = count;
+            pending[count++] = slot;
+        } else if (ids[slot] == id && timestamps[slot] > timestamp) {
+            return; //A newer state is already pending
+        }
+        ids[slot] = id;
+        states[slot] = state;
+        timestamps[slot] = timestamp;
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        states = Arrays.copyOf(states, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        pendingIndex = Arrays.copyOf(pendingIndex, capacity);
+        pending = Arrays.copyOf(pending, capacity);
+    }
+
+    public interface Consumer {
+        void accept(PhysicsStateData state, long timestamp);
+    }
+}
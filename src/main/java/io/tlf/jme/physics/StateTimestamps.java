@@ -0,0 +1,59 @@
+package io.tlf.jme.physics;
+
+import java.util.Arrays;
+
+/**
+ * Client side server timestamp of the newest state applied to each object.
+ * Network ids are dense, so timestamps are kept in arrays indexed by the slot of the id, like SpatialLookup,
+ * and the whole id is checked so an object does not inherit the timestamp of the object that held the slot before it.
+ * The table is not thread safe.
+ */
+public class StateTimestamps {
+
+    private long[] ids = new long[64];
+    private long[] timestamps = new long[64];
+
+    public StateTimestamps() {
+        Arrays.fill(ids, -1);
+    }
+
+    /**
+     * @param id The object id
+     * @return The timestamp of the newest state applied to the object, or -1 if none was applied.
+     */
+    public long get(long id) {
+        int slot = (int) (id & ObjectRegistry.SLOT_MASK);
+        if (slot < ids.length && ids[slot] == id) {
+            return timestamps[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * @param id        The object id
+     * @param timestamp The timestamp of the newest state applied to the object
+     */
+    public void set(long id, long timestamp) {
+        int slot = (int) (id & ObjectRegistry.SLOT_MASK);
+        if (slot >= ids.length) {
+            int capacity = Math.max(slot + 1, ids.length * 2);
+            int old = ids.length;
+            ids = Arrays.copyOf(ids, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            Arrays.fill(ids, old, capacity, -1);
+        }
+        ids[slot] = id;
+        timestamps[slot] = timestamp;
+    }
+
+    public void remove(long id) {
+        int slot = (int) (id & ObjectRegistry.SLOT_MASK);
+        if (slot < ids.length && ids[slot] == id) {
+            ids[slot] = -1;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(ids, -1);
+    }
+}
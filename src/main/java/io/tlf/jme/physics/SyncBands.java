@@ -0,0 +1,80 @@
+package io.tlf.jme.physics;
+
+import java.util.Arrays;
+
+/**
+ * Distance bands with their own update rate.
+ * An object is in the first band whose distance it is within, objects beyond every band are in the last band.
+ * An object in a band with a divisor of n is sent to a client every n-th sync interval.
+ * The interval an object is sent in is offset by the phase of the client and the slot of the object,
+ * so the traffic of distant objects is spread evenly across intervals instead of arriving in one burst.
+ * Bands are immutable, and may be shared between threads.
+ */
+public class SyncBands {
+
+    private final float[] distances;
+    private final int[] divisors;
+
+    /**
+     * For example distances of {20, 100, 400} with divisors of {1, 4, 16} send objects within 20 units every interval,
+     * objects within 100 units every 4th interval, and objects farther away every 16th interval.
+     *
+     * @param distances The outer distance of each band, in ascending order
+     * @param divisors  The number of sync intervals between updates of objects in each band
+     */
+    public SyncBands(float[] distances, int[] divisors) {
+        if (distances.length == 0 || distances.length != divisors.length) {
+            throw new IllegalArgumentException("Each band needs a distance and a divisor");
+        }
+        for (int i = 1; i < distances.length; i++) {
+            if (distances[i] < distances[i - 1]) {
+                throw new IllegalArgumentException("Band distances must be in ascending order");
+            }
+        }
+        this.distances = Arrays.copyOf(distances, distances.length);
+        this.divisors = new int[divisors.length];
+        for (int i = 0; i < divisors.length; i++) {
+            this.divisors[i] = Math.max(divisors[i], 1);
+        }
+    }
+
+    /**
+     * @return The number of bands.
+     */
+    public int size() {
+        return distances.length;
+    }
+
+    public float getDistance(int band) {
+        return distances[band];
+    }
+
+    public int getDivisor(int band) {
+        return divisors[band];
+    }
+
+    /**
+     * @param distance The distance from the client to the object
+     * @return The divisor of the band the distance falls in
+     */
+    public int divisor(float distance) {
+        for (int i = 0; i < distances.length; i++) {
+            if (distance <= distances[i]) {
+                return divisors[i];
+            }
+        }
+        return divisors[divisors.length - 1];
+    }
+
+    /**
+     * @param distance The distance from the client to the object
+     * @param interval The sequence number of the sync interval
+     * @param phase    The phase of the client
+     * @param id       The network id of the object
+     * @return True if the object is sent to the client in the interval.
+     */
+    public boolean isDue(float distance, long interval, int phase, long id) {
+        int divisor = divisor(distance);
+        return divisor == 1 || Math.floorMod(interval + phase + (id & ObjectRegistry.SLOT_MASK), (long) divisor) == 0;
+    }
+}
@@ -0,0 +1,303 @@
+package io.tlf.jme.physics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the sync engine.
+ * Recording uses counters and histograms that do not allocate, so metrics can stay enabled in production.
+ * The metrics can be pulled from the server with <code>PhysicsSyncServer.getMetrics()</code>, or published over JMX.
+ */
+public class SyncMetrics implements SyncMetricsMXBean {
+
+    private final PhysicsSyncSender sender;
+    private final LongAdder syncs = new LongAdder();
+    private final MetricHistogram scanTime = new MetricHistogram();
+    private final MetricHistogram captureTime = new MetricHistogram();
+    private final MetricHistogram buildTime = new MetricHistogram();
+    private final MetricHistogram sendTime = new MetricHistogram();
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder considered = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final RateCounter messages = new RateCounter();
+    private final RateCounter bytes = new RateCounter();
+    private final AtomicInteger addQueue = new AtomicInteger();
+    private final AtomicInteger removeQueue = new AtomicInteger();
+    private final AtomicInteger maxAddQueue = new AtomicInteger();
+    private final AtomicInteger maxRemoveQueue = new AtomicInteger();
+    private final LongAdder debugMessages = new LongAdder();
+    private final LongAdder debugBytes = new LongAdder();
+    private ObjectName registeredName;
+
+    /**
+     * @param sender The sender of the server, used for the metrics of each client
+     */
+    public SyncMetrics(PhysicsSyncSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Record the time spent finding objects that stopped moving.
+     *
+     * @param nanos The time in nanoseconds
+     */
+    public void recordScan(long nanos) {
+        scanTime.record(nanos / 1000);
+    }
+
+    /**
+     * Record a sync interval on the physics thread.
+     *
+     * @param nanos       The time spent capturing the snapshot, in nanoseconds
+     * @param objects     The number of objects captured
+     * @param addQueue    The number of queued registrations
+     * @param removeQueue The number of queued removals
+     */
+    public void recordCapture(long nanos, int objects, int addQueue, int removeQueue) {
+        syncs.increment();
+        captureTime.record(nanos / 1000);
+        captured.add(objects);
+        this.addQueue.set(addQueue);
+        this.removeQueue.set(removeQueue);
+        maxAddQueue.accumulateAndGet(addQueue, Math::max);
+        maxRemoveQueue.accumulateAndGet(removeQueue, Math::max);
+    }
+
+    /**
+     * Record the states built and sent to a client for a snapshot.
+     *
+     * @param buildNanos The time spent filtering, prioritizing and encoding, in nanoseconds
+     * @param sendNanos  The time spent sending, in nanoseconds
+     * @param considered The number of objects within range of the client
+     * @param sent       The number of states sent
+     */
+    public void recordClient(long buildNanos, long sendNanos, int considered, int sent) {
+        buildTime.record(buildNanos / 1000);
+        sendTime.record(sendNanos / 1000);
+        this.considered.add(considered);
+        this.sent.add(sent);
+    }
+
+    /**
+     * Record a message sent to a client.
+     *
+     * @param channel The channel of the client
+     * @param size    The estimated size of the message in bytes
+     */
+    public void recordMessage(ClientChannel channel, int size) {
+        messages.add(1);
+        bytes.add(size);
+        channel.getMessageRate().add(1);
+        channel.getByteRate().add(size);
+    }
+
+    /**
+     * Record debug messages sent.
+     *
+     * @param count The number of messages
+     * @param size  The estimated size of all of the messages in bytes
+     */
+    public void recordDebug(int count, long size) {
+        debugMessages.add(count);
+        debugBytes.add(size);
+    }
+
+    /**
+     * Publish the metrics over JMX.
+     *
+     * @param name The object name to register under
+     * @throws JMException If the name is invalid or already registered
+     */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(name);
+        server.registerMBean(this, objectName);
+        registeredName = objectName;
+    }
+
+    /**
+     * Stop publishing the metrics over JMX.
+     */
+    public synchronized void unregister() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException ex) {
+                //Already unregistered
+            }
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public long getSyncCount() {
+        return syncs.sum();
+    }
+
+    @Override
+    public double getScanTimeMean() {
+        return scanTime.getMean();
+    }
+
+    @Override
+    public long getScanTimeP99() {
+        return scanTime.getPercentile(0.99);
+    }
+
+    @Override
+    public double getCaptureTimeMean() {
+        return captureTime.getMean();
+    }
+
+    @Override
+    public long getCaptureTimeP99() {
+        return captureTime.getPercentile(0.99);
+    }
+
+    @Override
+    public double getBuildTimeMean() {
+        return buildTime.getMean();
+    }
+
+    @Override
+    public long getBuildTimeP99() {
+        return buildTime.getPercentile(0.99);
+    }
+
+    @Override
+    public double getSendTimeMean() {
+        return sendTime.getMean();
+    }
+
+    @Override
+    public long getSendTimeP99() {
+        return sendTime.getPercentile(0.99);
+    }
+
+    /**
+     * @return The histogram of dirty scan times, in microseconds.
+     */
+    public MetricHistogram getScanTime() {
+        return scanTime;
+    }
+
+    /**
+     * @return The histogram of snapshot capture times, in microseconds.
+     */
+    public MetricHistogram getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * @return The histogram of per-client build times, in microseconds.
+     */
+    public MetricHistogram getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * @return The histogram of per-client send times, in microseconds.
+     */
+    public MetricHistogram getSendTime() {
+        return sendTime;
+    }
+
+    @Override
+    public long getObjectsCaptured() {
+        return captured.sum();
+    }
+
+    @Override
+    public long getObjectsConsidered() {
+        return considered.sum();
+    }
+
+    @Override
+    public long getObjectsSent() {
+        return sent.sum();
+    }
+
+    @Override
+    public double getMessageRate() {
+        return messages.getRate();
+    }
+
+    @Override
+    public double getByteRate() {
+        return bytes.getRate();
+    }
+
+    @Override
+    public Map<String, Double> getClientMessageRates() {
+        HashMap<String, Double> rates = new HashMap<>();
+        for (ClientChannel channel : sender.channels()) {
+            rates.put(Integer.toString(channel.getConnection().getId()), channel.getMessageRate().getRate());
+        }
+        return rates;
+    }
+
+    @Override
+    public Map<String, Double> getClientByteRates() {
+        HashMap<String, Double> rates = new HashMap<>();
+        for (ClientChannel channel : sender.channels()) {
+            rates.put(Integer.toString(channel.getConnection().getId()), channel.getByteRate().getRate());
+        }
+        return rates;
+    }
+
+    @Override
+    public long getDroppedSnapshots() {
+        long dropped = 0;
+        for (ClientChannel channel : sender.channels()) {
+            dropped += channel.getDropped();
+        }
+        return dropped;
+    }
+
+    @Override
+    public int getAddQueueSize() {
+        return addQueue.get();
+    }
+
+    @Override
+    public int getRemoveQueueSize() {
+        return removeQueue.get();
+    }
+
+    @Override
+    public int getMaxAddQueueSize() {
+        return maxAddQueue.get();
+    }
+
+    @Override
+    public int getMaxRemoveQueueSize() {
+        return maxRemoveQueue.get();
+    }
+
+    @Override
+    public long getDebugMessages() {
+        return debugMessages.sum();
+    }
+
+    @Override
+    public long getDebugBytes() {
+        return debugBytes.sum();
+    }
+
+    @Override
+    public void reset() {
+        scanTime.reset();
+        captureTime.reset();
+        buildTime.reset();
+        sendTime.reset();
+        maxAddQueue.set(0);
+        maxRemoveQueue.set(0);
+    }
+}
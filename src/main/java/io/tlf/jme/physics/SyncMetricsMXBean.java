@@ -0,0 +1,82 @@
+package io.tlf.jme.physics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the sync engine metrics.
+ * Times are in microseconds, rates are per second.
+ */
+public interface SyncMetricsMXBean {
+
+    /**
+     * @return The number of sync intervals run.
+     */
+    long getSyncCount();
+
+    double getScanTimeMean();
+
+    long getScanTimeP99();
+
+    double getCaptureTimeMean();
+
+    long getCaptureTimeP99();
+
+    double getBuildTimeMean();
+
+    long getBuildTimeP99();
+
+    double getSendTimeMean();
+
+    long getSendTimeP99();
+
+    /**
+     * @return The number of object states captured, over all sync intervals.
+     */
+    long getObjectsCaptured();
+
+    /**
+     * @return The number of object states within range of a client, over all clients and sync intervals.
+     */
+    long getObjectsConsidered();
+
+    /**
+     * @return The number of object states sent, over all clients and sync intervals.
+     */
+    long getObjectsSent();
+
+    double getMessageRate();
+
+    double getByteRate();
+
+    /**
+     * @return The message rate of each client, keyed by connection id.
+     */
+    Map<String, Double> getClientMessageRates();
+
+    /**
+     * @return The byte rate of each client, keyed by connection id.
+     */
+    Map<String, Double> getClientByteRates();
+
+    /**
+     * @return The number of snapshots dropped because clients fell behind.
+     */
+    long getDroppedSnapshots();
+
+    int getAddQueueSize();
+
+    int getRemoveQueueSize();
+
+    int getMaxAddQueueSize();
+
+    int getMaxRemoveQueueSize();
+
+    long getDebugMessages();
+
+    long getDebugBytes();
+
+    /**
+     * Reset the histograms and queue size peaks.
+     */
+    void reset();
+}
@@ -0,0 +1,288 @@
+package io.tlf.jme.physics;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Vector3f;
+import com.jme3.network.HostedConnection;
+import com.jme3.scene.Spatial;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Transforms of the objects needing synced, captured on the physics thread during a sync interval.
+ * Once handed to the sender the snapshot is not modified, and may be read from any thread.
+ * Each holder of the snapshot keeps a reference to it, and once every reference is released
+ * the spatial index of the snapshot is returned to be rebuilt by a later snapshot.
+ */
+public class SyncSnapshot {
+
+    private final long timestamp;
+    private final long interval;
+    private final float syncDistance;
+    private final boolean velocities;
+    private int count = 0;
+    private PhysicsStateData[] states;
+    private float[] positions;
+    private float[] speeds;
+    private float[] sizes;
+    private boolean[] stopped;
+    private Vector3f tmp = new Vector3f();
+    private HashMap<HostedConnection, Vector3f> clients = new HashMap<>();
+    private SpatialIndex index;
+    private final Queue<SpatialIndex> indexes;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * @param timestamp    The time the snapshot was taken
+     * @param interval     The sequence number of the sync interval
+     * @param syncDistance The sync distance at the time the snapshot was taken
+     * @param capacity     The expected number of objects in the snapshot
+     * @param velocities   If the velocities of rigid bodies are captured
+     */
+    public SyncSnapshot(long timestamp, long interval, float syncDistance, int capacity, boolean velocities) {
+        this(timestamp, interval, syncDistance, capacity, velocities, null);
+    }
+
+    /**
+     * @param timestamp    The time the snapshot was taken
+     * @param interval     The sequence number of the sync interval
+     * @param syncDistance The sync distance at the time the snapshot was taken
+     * @param capacity     The expected number of objects in the snapshot
+     * @param velocities   If the velocities of rigid bodies are captured
+     * @param indexes      Spare spatial indexes the index of the snapshot is taken from and returned to, or null to allocate one
+     */
+    public SyncSnapshot(long timestamp, long interval, float syncDistance, int capacity, boolean velocities, Queue<SpatialIndex> indexes) {
+        this.indexes = indexes;
+        this.timestamp = timestamp;
+        this.interval = interval;
+        this.syncDistance = syncDistance;
+        this.velocities = velocities;
+        capacity = Math.max(capacity, 1);
+        states = new PhysicsStateData[capacity];
+        positions = new float[capacity * 3];
+        speeds = new float[capacity];
+        sizes = new float[capacity];
+        stopped = new boolean[capacity];
+    }
+
+    /**
+     * Capture the transform of an object.
+     * The state record is built once here and shared by every client that receives the object.
+     *
+     * @param id      The object id
+     * @param obj     The Spatial of the object
+     * @param body    The collision object of the Spatial, used for the velocity of the object
+     * @param stopped If this is the final state of an object that stopped moving
+     */
+    public void add(long id, Spatial obj, PhysicsCollisionObject body, boolean stopped) {
+        if (count == states.length) {
+            states = Arrays.copyOf(states, count * 2);
+            positions = Arrays.copyOf(positions, count * 6);
+            speeds = Arrays.copyOf(speeds, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+            this.stopped = Arrays.copyOf(this.stopped, count * 2);
+        }
+        Vector3f world = obj.getWorldTranslation();
+        PhysicsStateData state = new PhysicsStateData(id, obj.getLocalTranslation().clone(), obj.getLocalRotation().clone());
+        if (body instanceof PhysicsRigidBody) {
+            PhysicsRigidBody rigidBody = (PhysicsRigidBody) body;
+            speeds[count] = rigidBody.getLinearVelocity(tmp).length();
+            if (velocities) {
+                state.setLinearVelocity(tmp.clone());
+                state.setAngularVelocity(rigidBody.getAngularVelocity(new Vector3f()));
+            }
+        } else {
+            speeds[count] = 0;
+        }
+        states[count] = state;
+        int p = count * 3;
+        positions[p] = world.x;
+        positions[p + 1] = world.y;
+        positions[p + 2] = world.z;
+        sizes[count] = radius(obj.getWorldBound());
+        this.stopped[count] = stopped;
+        count++;
+    }
+
+    /**
+     * Capture the position of a client.
+     *
+     * @param c   The client
+     * @param pos The position of the client, the vector is cloned.
+     */
+    public void addClient(HostedConnection c, Vector3f pos) {
+        clients.put(c, pos.clone());
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The sequence number of the sync interval the snapshot was taken in.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    public float getSyncDistance() {
+        return syncDistance;
+    }
+
+    /**
+     * @return The number of objects in the snapshot.
+     */
+    public int size() {
+        return count;
+    }
+
+    public long getId(int index) {
+        return states[index].getId();
+    }
+
+    /**
+     * Get the state record of an object in the snapshot.
+     * The record is shared between clients and must not be modified.
+     *
+     * @param index The index of the object in the snapshot
+     * @return The state record
+     */
+    public PhysicsStateData getState(int index) {
+        return states[index];
+    }
+
+    /**
+     * @param index The index of the object in the snapshot
+     * @return The linear speed of the object
+     */
+    public float getSpeed(int index) {
+        return speeds[index];
+    }
+
+    /**
+     * @param index The index of the object in the snapshot
+     * @return The radius of the world bound of the object
+     */
+    public float getSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * @param index The index of the object in the snapshot
+     * @return If the state is the final state of an object that stopped moving
+     */
+    public boolean isStopped(int index) {
+        return stopped[index];
+    }
+
+    /**
+     * @param index The index of the object in the snapshot
+     * @param pos   The position to measure from
+     * @return The distance from the position to the object
+     */
+    public float getDistance(int index, Vector3f pos) {
+        int p = index * 3;
+        float dx = positions[p] - pos.x;
+        float dy = positions[p + 1] - pos.y;
+        float dz = positions[p + 2] - pos.z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * @param c The client
+     * @return The position of the client when the snapshot was taken, or null if the client was not known.
+     */
+    public Vector3f getClientPosition(HostedConnection c) {
+        return clients.get(c);
+    }
+
+    /**
+     * Visit the objects in the snapshot that are within sync distance of a position.
+     * A position of Vector3f.NAN, or a negative sync distance, will visit all objects.
+     *
+     * @param pos     The position of the client
+     * @param visitor Receives the index of each object within range
+     */
+    public void visit(Vector3f pos, IntConsumer visitor) {
+        if (pos.equals(Vector3f.NAN) || syncDistance < 0) {
+            for (int i = 0; i < count; i++) {
+                visitor.accept(i);
+            }
+        } else {
+            visit(pos, syncDistance, visitor);
+        }
+    }
+
+    /**
+     * Visit the objects in the snapshot that are within a radius of a position.
+     *
+     * @param pos     The center of the query
+     * @param radius  The radius of the query
+     * @param visitor Receives the index of each object within range
+     */
+    public void visit(Vector3f pos, float radius, IntConsumer visitor) {
+        if (radius > 0) {
+            index().query(pos, radius, i -> visitor.accept((int) i));
+        }
+    }
+
+    /**
+     * @param bound The world bound of an object, may be null
+     * @return The radius of a sphere around the bound
+     */
+    static float radius(BoundingVolume bound) {
+        if (bound instanceof BoundingSphere) {
+            return ((BoundingSphere) bound).getRadius();
+        } else if (bound instanceof BoundingBox) {
+            BoundingBox box = (BoundingBox) bound;
+            float x = box.getXExtent(), y = box.getYExtent(), z = box.getZExtent();
+            return (float) Math.sqrt(x * x + y * y + z * z);
+        }
+        return 0;
+    }
+
+    /**
+     * Take a reference to the snapshot. The creator of the snapshot holds the first reference.
+     */
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Release a reference to the snapshot, the snapshot must not be read after its last reference is released.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            synchronized (this) {
+                if (index != null && indexes != null) {
+                    indexes.offer(index);
+                }
+                index = null;
+            }
+        }
+    }
+
+    private synchronized SpatialIndex index() {
+        //Built on first use by the sender, and shared by every client
+        if (index == null) {
+            index = indexes != null ? indexes.poll() : null;
+            if (index == null) {
+                index = new SpatialIndex(syncDistance, count);
+            } else {
+                index.setCellSize(syncDistance);
+                index.clear();
+            }
+            for (int i = 0; i < count; i++) {
+                index.put(i, positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,88 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Vector3f;
+
+/**
+ * Objects registered with a client.
+ * A client whose interest is limited to its neighbourhood only has the objects near it registered,
+ * a client that receives every object sees all objects and nothing is listed.
+ * The set is updated by the server on the physics thread, and read by the sender.
+ */
+public class VisibilitySet {
+
+    private LongIntMap visible = new LongIntMap();
+    private boolean all = true;
+    //Only used by the VisibilityTracker on the physics thread
+    final Vector3f origin = Vector3f.NAN.clone();
+    float radius = -1;
+    int phase = -1;
+
+    /**
+     * @param id The object id
+     * @return True if the object is registered with the client.
+     */
+    public synchronized boolean contains(long id) {
+        return all || visible.containsKey(id);
+    }
+
+    /**
+     * @return True if every object is registered with the client.
+     */
+    public synchronized boolean isAll() {
+        return all;
+    }
+
+    /**
+     * @return The number of objects listed, 0 if the client sees all objects.
+     */
+    public synchronized int size() {
+        return visible.size();
+    }
+
+    /**
+     * Mark every object as registered with the client.
+     */
+    public synchronized void setAll() {
+        all = true;
+        visible.clear();
+        origin.set(Vector3f.NAN);
+    }
+
+    /**
+     * Start listing the objects registered with the client.
+     * The next update of the set is a full sweep.
+     *
+     * @param ids The objects the client has
+     */
+    public synchronized void track(long[] ids) {
+        all = false;
+        visible.clear();
+        for (long id : ids) {
+            visible.put(id, 0);
+        }
+        origin.set(Vector3f.NAN);
+    }
+
+    /**
+     * @param id The object id
+     * @return True if the object was not already listed.
+     */
+    synchronized boolean add(long id) {
+        return visible.put(id, 0) == LongIntMap.MISSING;
+    }
+
+    /**
+     * @param id The object id
+     * @return True if the object was listed.
+     */
+    public synchronized boolean remove(long id) {
+        return visible.remove(id) != LongIntMap.MISSING;
+    }
+
+    /**
+     * @return A new array of the listed objects.
+     */
+    synchronized long[] ids() {
+        return visible.keys();
+    }
+}
@@ -0,0 +1,133 @@
+package io.tlf.jme.physics;
+
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+import java.util.List;
+
+/**
+ * Keeps the visibility sets of clients up to date as clients and objects move.
+ * <p>
+ * An object enters the set of a client when it comes within the sync distance plus half the hysteresis margin,
+ * and leaves once it is beyond the sync distance plus the whole margin, so objects near the boundary do not thrash.
+ * Sets are swept against an index of every object when the client has moved half the margin, and periodically.
+ * Between sweeps only the objects that moved are checked, which is enough to keep every object within the sync distance
+ * of the client registered. Objects that left are found by the next sweep.
+ * The tracker is not thread safe, it is used on the physics thread.
+ */
+public class VisibilityTracker {
+
+    /**
+     * The number of sync intervals between sweeps of a client that is not moving
+     */
+    public static final int SWEEP_INTERVALS = 20;
+
+    private SpatialIndex world;
+    private float hysteresis = 0.2f;
+    private int pass = 0;
+    private int nextPhase = 0;
+    private Vector3f tmp = new Vector3f();
+
+    /**
+     * @param fraction The margin between entering and leaving range, as a fraction of the sync distance.
+     */
+    public void setHysteresis(float fraction) {
+        this.hysteresis = Math.max(fraction, 0);
+    }
+
+    public float getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * Build the index of every object, if it has not been built for the sync distance.
+     *
+     * @param syncDistance The sync distance
+     * @param registry     The objects
+     */
+    public void prepare(float syncDistance, ObjectRegistry registry) {
+        float cellSize = syncDistance > 0 ? syncDistance : 1f;
+        if (world != null && world.getCellSize() == cellSize) {
+            return;
+        }
+        world = new SpatialIndex(cellSize);
+        for (int slot = 0; slot < registry.limit(); slot++) {
+            Spatial s = registry.getSpatial(slot);
+            if (s != null) {
+                world.put(registry.getId(slot), s.getWorldTranslation());
+            }
+        }
+    }
+
+    /**
+     * Record the position of an object that was added or moved.
+     *
+     * @param id  The object id
+     * @param pos The world position of the object
+     */
+    public void move(long id, Vector3f pos) {
+        if (world != null) {
+            world.put(id, pos);
+        }
+    }
+
+    public void remove(long id) {
+        if (world != null) {
+            world.remove(id);
+        }
+    }
+
+    /**
+     * Advance to the next sync interval.
+     */
+    public void next() {
+        pass++;
+    }
+
+    /**
+     * Update the visibility set of a client. The index must be prepared for the sync distance.
+     *
+     * @param set          The visibility set of the client
+     * @param clientPos    The position of the client
+     * @param syncDistance The sync distance
+     * @param snapshot     The snapshot of the interval, holding the objects that moved
+     * @param enter        Receives the objects that came within range
+     * @param leave        Receives the objects that went out of range
+     */
+    public void update(VisibilitySet set, Vector3f clientPos, float syncDistance, SyncSnapshot snapshot, List<Long> enter, List<Long> leave) {
+        float margin = syncDistance * hysteresis;
+        float enterRadius = syncDistance + margin / 2f;
+        float leaveRadius = syncDistance + margin;
+        if (set.phase < 0) {
+            set.phase = nextPhase++ % SWEEP_INTERVALS;
+        }
+        boolean sweep = set.radius != enterRadius || !Vector3f.isValidVector(set.origin)
+                || set.origin.distanceSquared(clientPos) >= margin * margin / 4f || (pass + set.phase) % SWEEP_INTERVALS == 0;
+        if (!sweep) {
+            //Objects that did not move are still out of range of the origin of the last sweep
+            snapshot.visit(set.origin, enterRadius, i -> {
+                long id = snapshot.getId(i);
+                //Objects removed since the snapshot was captured are no longer in the index
+                if (world.get(id, tmp) && set.add(id)) {
+                    enter.add(id);
+                }
+            });
+            return;
+        }
+        set.origin.set(clientPos);
+        set.radius = enterRadius;
+        float leaveSq = leaveRadius * leaveRadius;
+        for (long id : set.ids()) {
+            //Removed objects are removed from the set with the removal of the object
+            if (world.get(id, tmp) && tmp.distanceSquared(clientPos) > leaveSq) {
+                set.remove(id);
+                leave.add(id);
+            }
+        }
+        world.query(clientPos, enterRadius, id -> {
+            if (set.add(id)) {
+                enter.add(id);
+            }
+        });
+    }
+}
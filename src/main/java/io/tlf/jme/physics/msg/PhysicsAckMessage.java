@@ -0,0 +1,37 @@
+package io.tlf.jme.physics.msg;
+
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.serializing.Serializable;
+
+/**
+ * Acknowledges the delta compression snapshots received by a client.
+ * Each snapshot is acknowledged with a bitmask of the parts, the sync messages, of the snapshot that were received.
+ */
+@Serializable
+public class PhysicsAckMessage extends AbstractMessage {
+    private long[] snapshots;
+    private long[] parts;
+
+    public PhysicsAckMessage() {
+        this.setReliable(false);
+    }
+
+    public long[] getSnapshots() {
+        return snapshots;
+    }
+
+    public void setSnapshots(long[] snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * @return The bitmask of the parts received of each snapshot.
+     */
+    public long[] getParts() {
+        return parts;
+    }
+
+    public void setParts(long[] parts) {
+        this.parts = parts;
+    }
+}
@@ -18,7 +18,8 @@ import java.io.IOException;
 public class PhysicsDebugMessage extends AbstractMessage {
 
     private byte[] meshData;
-    private long id;
+    private int id;
+    private int shape;
 
     public PhysicsDebugMessage() {
         this.setReliable(true);
@@ -29,29 +30,63 @@ public class PhysicsDebugMessage extends AbstractMessage {
         setData(data);
     }
 
+    /**
+     * @param id       The network id of the object
+     * @param shape    The shape id of the object
+     * @param meshData The serialized mesh of the shape, or null if the client already has the mesh of the shape
+     */
+    public PhysicsDebugMessage(long id, int shape, byte[] meshData) {
+        this.setReliable(true);
+        this.id = (int) id;
+        this.shape = shape;
+        this.meshData = meshData != null ? meshData : new byte[0];
+    }
+
     public void setData(DebugData data) {
+        meshData = export(data.mesh);
+        id = (int) data.id;
+        shape = data.shape;
+    }
+
+    /**
+     * Serialize a debug mesh.
+     *
+     * @param mesh The mesh
+     * @return The serialized mesh
+     */
+    public static byte[] export(Mesh mesh) {
         BinaryExporter binWriter = BinaryExporter.getInstance();
         ByteArrayOutputStream meshOut = new ByteArrayOutputStream();
-        ByteArrayOutputStream matOut = new ByteArrayOutputStream();
         try {
-            //binWriter.save(data.mat, matOut);
-            binWriter.save(data.mesh, meshOut);
+            binWriter.save(mesh, meshOut);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        meshData = meshOut.toByteArray();
-        id = data.id;
+        return meshOut.toByteArray();
     }
 
+    /**
+     * @return The size of the serialized mesh in bytes.
+     */
+    public int getMeshSize() {
+        return meshData != null ? meshData.length : 0;
+    }
+
+    /**
+     * @return The debug data, the mesh is null if the message does not carry the mesh of the shape.
+     */
     public DebugData getData() {
         BinaryImporter binReader = BinaryImporter.getInstance();
         DebugData dd = new DebugData();
-        try {
-            dd.mesh = (Mesh) binReader.load(meshData);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (meshData.length > 0) {
+            try {
+                dd.mesh = (Mesh) binReader.load(meshData);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
         dd.id = id;
+        dd.shape = shape;
         return dd;
     }
 }
@@ -5,18 +5,24 @@ import com.jme3.math.Vector3f;
 import com.jme3.network.AbstractMessage;
 import com.jme3.network.serializing.Serializable;
 import com.jme3.scene.Spatial;
+import io.tlf.jme.physics.PhysicsDeltaData;
 import io.tlf.jme.physics.PhysicsStateData;
 
 @Serializable
 public class PhysicsSyncMessage extends AbstractMessage {
 
     /**
-     * Maximum number of object that can be placed in a UDP packet
+     * Maximum number of objects placed in a message, messages are also limited by the server's maximum message size
      */
     public static final int MAX_PACK = 1000;
 
     private PhysicsStateData[] data;
+    private PhysicsDeltaData[] deltaData;
     private long timestamp;
+    private long snapshot;
+    private int part;
+    private long interval;
+    private int sequence;
 
     public PhysicsSyncMessage() {
         this.setReliable(false);
@@ -37,4 +43,66 @@ public class PhysicsSyncMessage extends AbstractMessage {
     public long getTimestamp() {
         return timestamp;
     }
+
+    public void setDeltaData(PhysicsDeltaData[] deltaData) {
+        this.deltaData = deltaData;
+    }
+
+    public PhysicsDeltaData[] getDeltaData() {
+        return deltaData;
+    }
+
+    /**
+     * Set the snapshot id used for delta compression.
+     * A snapshot id of 0 means the message is not delta compressed.
+     *
+     * @param snapshot The snapshot id
+     */
+    public void setSnapshot(long snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public long getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Set the index of the message within its snapshot, a snapshot is split across several messages.
+     *
+     * @param part The part index
+     */
+    public void setPart(int part) {
+        this.part = part;
+    }
+
+    public int getPart() {
+        return part;
+    }
+
+    /**
+     * Set the sequence number of the sync interval the states were captured in.
+     *
+     * @param interval The interval
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Set the number of sync intervals states were sent to the client in before this one.
+     * A gap in the sequence means an interval was lost, while a gap in the interval alone means no states were sent.
+     *
+     * @param sequence The sequence number
+     */
+    public void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
 }
@@ -7,13 +7,16 @@ import com.jme3.network.serializing.Serializable;
 public class PhysicsSyncObjMessage  extends AbstractMessage {
 
     /**
-     * Maximum number of object that can be placed in a UDP packet
+     * Maximum number of objects placed in a message, messages are also limited by the server's maximum message size
      */
     public static final int MAX_PACK = 100;
 
     private String[] name;
-    private long[] id;
+    private int[] id;
     private boolean[] remove;
+    private short[] prefix;
+    private String[] prefixes;
+    private int tableBase;
 
     public PhysicsSyncObjMessage() {
         this.setReliable(true);
@@ -27,11 +30,14 @@ public class PhysicsSyncObjMessage  extends AbstractMessage {
         this.name = name;
     }
 
-    public long[] getId() {
+    /**
+     * @return The network ids of the objects
+     */
+    public int[] getId() {
         return id;
     }
 
-    public void setId(long[] id) {
+    public void setId(int[] id) {
         this.id = id;
     }
 
@@ -42,4 +48,37 @@ public class PhysicsSyncObjMessage  extends AbstractMessage {
     public void setRemove(boolean[] remove) {
         this.remove = remove;
     }
+
+    /**
+     * @return The index in the name table of the prefix of each name, or -1 if the name is sent whole. Null if names are not encoded.
+     */
+    public short[] getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(short[] prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return The prefixes added to the name table by this message
+     */
+    public String[] getPrefixes() {
+        return prefixes;
+    }
+
+    public void setPrefixes(String[] prefixes) {
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * @return The size of the name table before the prefixes of this message are added
+     */
+    public int getTableBase() {
+        return tableBase;
+    }
+
+    public void setTableBase(int tableBase) {
+        this.tableBase = tableBase;
+    }
 }
@@ -0,0 +1,462 @@
+package io.tlf.jme.physics.test;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.bullet.BulletAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.network.*;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import com.jme3.system.AppSettings;
+import com.jme3.system.JmeContext;
+import io.tlf.jme.physics.DeltaAcks;
+import io.tlf.jme.physics.DeltaHistory;
+import io.tlf.jme.physics.MessageSizes;
+import io.tlf.jme.physics.MetricHistogram;
+import io.tlf.jme.physics.PhysicsDeltaData;
+import io.tlf.jme.physics.PhysicsStateCodec;
+import io.tlf.jme.physics.PhysicsStateData;
+import io.tlf.jme.physics.PhysicsSyncServer;
+import io.tlf.jme.physics.SyncBands;
+import io.tlf.jme.physics.SyncMetrics;
+import io.tlf.jme.physics.msg.PhysicsAckMessage;
+import io.tlf.jme.physics.msg.PhysicsEchoMessage;
+import io.tlf.jme.physics.msg.PhysicsSyncMessage;
+import io.tlf.jme.physics.msg.PhysicsSyncObjMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Headless load test of the physics sync server.
+ * Spawns rigid bodies, connects simulated clients over loopback, and reports the bandwidth of each client,
+ * end-to-end update latency, missed and stale updates, and server tick times.
+ * Missed intervals are intervals the server sent states in that never arrived, found from the sequence numbers of sync messages.
+ * Quiet intervals, where the client had no states due, such as when nothing moved or objects were skipped by bands,
+ * dead reckoning or the bandwidth budget, are reported separately.
+ * With delta compression, simulated clients decode deltas against their own history and only acknowledge
+ * the parts they could decode, like PhysicsSyncClient. The summary checks that most states were sent as deltas,
+ * and that every delta could be decoded.
+ * It does not need a display, audio or an external network.
+ * <p>
+ * Usage: LoadTest [--objects 2000] [--clients 16] [--duration 60] [--report 5] [--active 0.25] [--interval 50]
+ * [--distance 100] [--bands 20:1,100:4] [--bandwidth 0] [--port 6143] [--delta] [--compact] [--velocity] [--stagger]
+ * <p>
+ * Bands are given as distance:divisor pairs, see SyncBands.
+ */
+public class LoadTest extends SimpleApplication implements PhysicsTickListener, ConnectionListener {
+
+    public static void main(String[] args) {
+        LoadTest app = new LoadTest();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--objects": app.objects = Integer.parseInt(args[++i]); break;
+                case "--clients": app.clients = Integer.parseInt(args[++i]); break;
+                case "--duration": app.duration = Float.parseFloat(args[++i]); break;
+                case "--report": app.reportInterval = Float.parseFloat(args[++i]); break;
+                case "--active": app.activeFraction = Float.parseFloat(args[++i]); break;
+                case "--interval": app.updateInterval = Long.parseLong(args[++i]); break;
+                case "--distance": app.syncDistance = Float.parseFloat(args[++i]); break;
+                case "--bands": app.bands = parseBands(args[++i]); break;
+                case "--bandwidth": app.bandwidth = Integer.parseInt(args[++i]); break;
+                case "--port": app.port = Integer.parseInt(args[++i]); break;
+                case "--delta": app.delta = true; break;
+                case "--compact": app.compact = true; break;
+                case "--velocity": app.velocity = true; break;
+                case "--stagger": app.stagger = true; break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        AppSettings settings = new AppSettings(true);
+        settings.setTitle("Network Physics Sync Load Test");
+        settings.setAudioRenderer(null);
+        settings.setFrameRate(60);
+        app.setSettings(settings);
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+    }
+
+    private static SyncBands parseBands(String arg) {
+        String[] pairs = arg.split(",");
+        float[] distances = new float[pairs.length];
+        int[] divisors = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] pair = pairs[i].split(":");
+            distances[i] = Float.parseFloat(pair[0]);
+            divisors[i] = Integer.parseInt(pair[1]);
+        }
+        return new SyncBands(distances, divisors);
+    }
+
+    private static final float SPACING = 3f; //Average distance between bodies
+    private static final float MIN_DELTA_FRACTION = 0.5f; //Fraction of states expected as deltas with delta compression
+
+    private int objects = 2000;
+    private int clients = 16;
+    private float duration = 60f; //in seconds
+    private float reportInterval = 5f; //in seconds
+    private float activeFraction = 0.25f; //Fraction of bodies kicked every second
+    private long updateInterval = 50; //in milliseconds
+    private float syncDistance = 100f;
+    private SyncBands bands = null;
+    private int bandwidth = 0;
+    private int port = 6143;
+    private boolean delta = false;
+    private boolean compact = false;
+    private boolean velocity = false;
+    private boolean stagger = false;
+
+    private BulletAppState bulletAppState;
+    private PhysicsSyncServer physicsSync;
+    private Server server;
+    private PhysicsStateCodec codec;
+    private float extent;
+    private float syncPeriod;
+    private Random random = new Random(42);
+    private ArrayList<Geometry> bodies = new ArrayList<>();
+    private ArrayList<SimulatedClient> simulated = new ArrayList<>();
+    private ArrayList<Client> connections = new ArrayList<>();
+    private MetricHistogram tickTime = new MetricHistogram();
+    private MetricHistogram windowTickTime = new MetricHistogram();
+    private MetricHistogram latency = new MetricHistogram();
+    private MetricHistogram windowLatency = new MetricHistogram();
+    private boolean measuring = false;
+    private long tickStart = 0;
+    private float elapsed = 0;
+    private float sinceKick = 0;
+    private float sinceReport = 0;
+
+    @Override
+    public void simpleInitApp() {
+        System.out.println("Load Test Loading");
+        //Configure Physics
+        bulletAppState = new BulletAppState();
+        stateManager.attach(bulletAppState);
+
+        physicsSync = new PhysicsSyncServer(bulletAppState);
+        physicsSync.setUpdateInterval(updateInterval);
+        physicsSync.setSyncDistance(syncDistance);
+        physicsSync.setDeltaCompression(delta);
+        physicsSync.setVelocitySync(velocity);
+        physicsSync.setClientBandwidth(bandwidth);
+        physicsSync.setSyncBands(bands);
+        physicsSync.setStaggeredSync(stagger);
+        if (compact) {
+            codec = PhysicsStateCodec.getDefault();
+            physicsSync.setCompactEncoding(codec);
+        }
+        stateManager.attach(physicsSync);
+        //Sync runs on the first physics tick after the interval has passed,
+        //staggered syncs round the interval to a whole number of ticks
+        float tick = bulletAppState.getPhysicsSpace().getAccuracy() * 1000f;
+        if (stagger) {
+            syncPeriod = Math.max(1, Math.round(updateInterval / tick)) * tick;
+        } else {
+            syncPeriod = ((int) (updateInterval / tick) + 1) * tick;
+        }
+
+        //Configure Network
+        try {
+            server = Network.createServer(port);
+            physicsSync.registerMessages();
+            server.addConnectionListener(this);
+            server.addMessageListener(physicsSync);
+            server.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            stop();
+            return;
+        }
+
+        spawn();
+
+        //Connect simulated clients
+        try {
+            for (int i = 0; i < clients; i++) {
+                SimulatedClient sc = new SimulatedClient();
+                Client client = Network.connectToServer("localhost", port);
+                client.addMessageListener(sc);
+                client.start();
+                simulated.add(sc);
+                connections.add(client);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            stop();
+            return;
+        }
+        System.out.printf("Load Test Running: %d objects, %d clients, sync every %.1f ms%n", objects, clients, syncPeriod);
+    }
+
+    private void spawn() {
+        extent = (float) Math.sqrt(objects) * SPACING;
+        //Static floor, it is not synced
+        Geometry floor = new Geometry("Floor", new Box(extent / 2f + 10f, 1f, extent / 2f + 10f));
+        floor.setLocalTranslation(extent / 2f, -1f, extent / 2f);
+        RigidBodyControl floorControl = new RigidBodyControl(0f);
+        floor.addControl(floorControl);
+        bulletAppState.getPhysicsSpace().add(floorControl);
+        rootNode.attachChild(floor);
+
+        Box mesh = new Box(0.5f, 0.5f, 0.5f);
+        BoxCollisionShape shape = new BoxCollisionShape(0.5f);
+        for (int i = 0; i < objects; i++) {
+            Geometry body = new Geometry("Body" + i, mesh);
+            body.setLocalTranslation(random.nextFloat() * extent, 1f + random.nextFloat() * 10f, random.nextFloat() * extent);
+            body.addControl(new RigidBodyControl(shape, 1f));
+            rootNode.attachChild(body);
+            physicsSync.add(body);
+            bodies.add(body);
+        }
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        if (!measuring) {
+            //Added after the sync server, so the tick time includes its tick
+            bulletAppState.getPhysicsSpace().addTickListener(this);
+            measuring = true;
+        }
+        elapsed += tpf;
+        sinceKick += tpf;
+        sinceReport += tpf;
+
+        //Acknowledge snapshot parts once per frame, like PhysicsSyncClient
+        for (int i = 0; i < simulated.size(); i++) {
+            PhysicsAckMessage ack = simulated.get(i).acks.poll();
+            if (ack != null && connections.get(i).isConnected()) {
+                connections.get(i).send(ack);
+            }
+        }
+
+        //Keep a fraction of the bodies moving
+        if (sinceKick >= 1f) {
+            sinceKick = 0;
+            int kicks = Math.round(bodies.size() * activeFraction);
+            for (int i = 0; i < kicks; i++) {
+                Geometry body = bodies.get(random.nextInt(bodies.size()));
+                RigidBodyControl control = body.getControl(RigidBodyControl.class);
+                control.activate();
+                control.applyImpulse(new Vector3f(random.nextFloat() * 4f - 2f, 3f + random.nextFloat() * 3f, random.nextFloat() * 4f - 2f), Vector3f.ZERO);
+                physicsSync.markDirty(body);
+            }
+        }
+
+        if (sinceReport >= reportInterval) {
+            report(sinceReport, windowLatency, windowTickTime, false);
+            sinceReport = 0;
+            windowLatency.reset();
+            windowTickTime.reset();
+        }
+        if (elapsed >= duration) {
+            System.out.println("Load Test Summary");
+            report(elapsed, latency, tickTime, true);
+            stop();
+        }
+    }
+
+    private void report(float seconds, MetricHistogram latency, MetricHistogram tickTime, boolean summary) {
+        float minRate = Float.MAX_VALUE;
+        float maxRate = 0;
+        float totalRate = 0;
+        long messages = 0;
+        long states = 0;
+        long missed = 0;
+        long stale = 0;
+        long deltas = 0;
+        long quiet = 0;
+        long undecodable = 0;
+        for (SimulatedClient sc : simulated) {
+            long[] window = sc.window(summary);
+            float rate = window[0] / seconds / 1024f;
+            minRate = Math.min(minRate, rate);
+            maxRate = Math.max(maxRate, rate);
+            totalRate += rate;
+            messages += window[1];
+            states += window[2];
+            missed += window[3];
+            stale += window[4];
+            deltas += window[5];
+            quiet += window[6];
+            undecodable += window[7];
+        }
+        int count = Math.max(simulated.size(), 1);
+        SyncMetrics metrics = physicsSync.getMetrics();
+        System.out.printf("[%5.0fs] kB/s per client min %.1f avg %.1f max %.1f | msgs/s per client %.1f | states/s per client %.1f%n",
+                elapsed, simulated.isEmpty() ? 0 : minRate, totalRate / count, maxRate, messages / seconds / count, states / seconds / count);
+        System.out.printf("         latency ms p50 %d p99 %d max %d | missed intervals %d | quiet intervals %d | stale states %d | dropped snapshots %d%n",
+                latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getPercentile(1), missed, quiet, stale, metrics.getDroppedSnapshots());
+        System.out.printf("         tick us p50 %d p99 %d max %d | capture us p99 %d | build us p99 %d | send us p99 %d%n",
+                tickTime.getPercentile(0.5), tickTime.getPercentile(0.99), tickTime.getPercentile(1),
+                metrics.getCaptureTimeP99(), metrics.getBuildTimeP99(), metrics.getSendTimeP99());
+        if (delta) {
+            float fraction = states > 0 ? deltas / (float) states : 0;
+            System.out.printf("         delta states %.1f%% | undecodable deltas %d%n", fraction * 100f, undecodable);
+            if (summary) {
+                if (undecodable > 0) {
+                    System.out.printf("Delta check FAILED: %d deltas referenced a baseline the client did not have%n", undecodable);
+                } else {
+                    System.out.println(fraction >= MIN_DELTA_FRACTION ? "Delta check passed" :
+                            String.format("Delta check FAILED: %.1f%% of states were sent as deltas, expected at least %.0f%%", fraction * 100f, MIN_DELTA_FRACTION * 100f));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (Client client : connections) {
+            if (client.isConnected()) {
+                client.close();
+            }
+        }
+        if (server != null && server.isRunning()) {
+            server.close();
+        }
+        super.destroy();
+    }
+
+    @Override
+    public void prePhysicsTick(PhysicsSpace space, float timeStep) {
+        tickStart = System.nanoTime();
+    }
+
+    @Override
+    public void physicsTick(PhysicsSpace space, float timeStep) {
+        long micros = (System.nanoTime() - tickStart) / 1000;
+        tickTime.record(micros);
+        windowTickTime.record(micros);
+    }
+
+    @Override
+    public void connectionAdded(Server server, HostedConnection conn) {
+        Vector3f pos;
+        synchronized (random) {
+            pos = new Vector3f(random.nextFloat() * extent, 0, random.nextFloat() * extent);
+        }
+        physicsSync.add(conn, pos);
+    }
+
+    @Override
+    public void connectionRemoved(Server server, HostedConnection conn) {
+        physicsSync.remove(conn);
+    }
+
+    /**
+     * Client that counts what it receives instead of applying it.
+     * It answers echos, and keeps a delta history and acknowledges snapshot parts, like PhysicsSyncClient.
+     */
+    private class SimulatedClient implements MessageListener<Client> {
+
+        private HashMap<Long, Long> newest = new HashMap<>();
+        private HashMap<Long, DeltaHistory> history = new HashMap<>();
+        private Vector3f pos = new Vector3f();
+        private Quaternion rot = new Quaternion();
+        private long lastInterval = -1;
+        private int lastSequence = -1;
+        private DeltaAcks acks = new DeltaAcks();
+        //Totals and the totals at the last report:
+        //bytes, messages, states, missed intervals, stale states, delta states, quiet intervals, undecodable deltas
+        private long[] totals = new long[8];
+        private long[] reported = new long[8];
+
+        @Override
+        public synchronized void messageReceived(Client source, Message m) {
+            long arrival = System.currentTimeMillis();
+            int size;
+            if (m instanceof PhysicsSyncMessage) {
+                PhysicsSyncMessage msg = (PhysicsSyncMessage) m;
+                long timestamp = msg.getTimestamp();
+                latency.record(arrival - timestamp);
+                windowLatency.record(arrival - timestamp);
+                if (msg.getInterval() > lastInterval) {
+                    if (lastSequence >= 0) {
+                        //Every interval the server sent states in has a sequence number, the other skipped intervals were quiet
+                        long lost = Math.max(msg.getSequence() - lastSequence - 1, 0);
+                        totals[3] += lost;
+                        totals[6] += Math.max(msg.getInterval() - lastInterval - 1 - lost, 0);
+                    }
+                    lastInterval = msg.getInterval();
+                    lastSequence = msg.getSequence();
+                }
+                size = MessageSizes.SYNC_MESSAGE;
+                if (msg.getPhysicsData() != null) {
+                    for (PhysicsStateData state : msg.getPhysicsData()) {
+                        size += MessageSizes.state(state, codec);
+                        if (msg.getSnapshot() > 0) {
+                            history.computeIfAbsent(state.getId(), k -> new DeltaHistory()).record(msg.getSnapshot(), state.getLocation(), state.getRotation());
+                        }
+                        received(state.getId(), timestamp);
+                    }
+                }
+                boolean decoded = true;
+                if (msg.getDeltaData() != null) {
+                    for (PhysicsDeltaData delta : msg.getDeltaData()) {
+                        size += MessageSizes.delta(delta);
+                        DeltaHistory states = history.get(delta.getId());
+                        if (states == null || !states.get(msg.getSnapshot() - delta.getBaseline(), pos, rot)) {
+                            decoded = false; //Like PhysicsSyncClient, the part is not acknowledged
+                            totals[7]++;
+                            continue;
+                        }
+                        delta.apply(pos, rot, pos, rot);
+                        states.record(msg.getSnapshot(), pos, rot);
+                        received(delta.getId(), timestamp);
+                        totals[5]++;
+                    }
+                }
+                if (decoded) {
+                    acks.receive(msg.getSnapshot(), msg.getPart()); //Acknowledged on the next frame
+                }
+            } else if (m instanceof PhysicsEchoMessage) {
+                source.send(m); //Echo message back
+                size = MessageSizes.message(m);
+            } else {
+                if (m instanceof PhysicsSyncObjMessage) {
+                    PhysicsSyncObjMessage msg = (PhysicsSyncObjMessage) m;
+                    for (int i = 0; i < msg.getId().length; i++) {
+                        if (msg.getRemove()[i]) {
+                            newest.remove((long) msg.getId()[i]);
+                            history.remove((long) msg.getId()[i]);
+                        }
+                    }
+                }
+                size = MessageSizes.message(m);
+            }
+            totals[0] += size;
+            totals[1]++;
+        }
+
+        private void received(long id, long timestamp) {
+            Long previous = newest.get(id);
+            if (previous != null && timestamp < previous) {
+                totals[4]++; //Older than a state already received, the client would discard it
+            } else {
+                newest.put(id, timestamp);
+            }
+            totals[2]++;
+        }
+
+        /**
+         * @param all If the totals should be returned instead of the change since the last report
+         * @return The bytes, messages, states, missed intervals, stale states, delta states, quiet intervals and undecodable deltas
+         */
+        synchronized long[] window(boolean all) {
+            long[] window = new long[totals.length];
+            for (int i = 0; i < totals.length; i++) {
+                window[i] = all ? totals[i] : totals[i] - reported[i];
+                reported[i] = totals[i];
+            }
+            return window;
+        }
+    }
+}